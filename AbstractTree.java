@@ -1,16 +1,36 @@
 package net.posick.tree;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Iterator;
-import java.util.Stack;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
@@ -19,6 +39,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlType;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * The AbstractTree is an abstract base class implementing a linked tree structure.
@@ -35,6 +56,454 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
 {
     private static final long serialVersionUID = 200802251417L;
     
+    private static final int MAX_COUNT_DEPTH = 64;
+    
+    private static final int UNKNOWN_COUNT = Integer.MIN_VALUE;
+    
+    private static final int PARALLEL_THRESHOLD = 1024;
+    
+    private static final int POSITION_THRESHOLD = 32;
+    
+    private static final ConcurrentHashMap<Class, NodeFactory> NODE_FACTORIES = new ConcurrentHashMap<Class, NodeFactory>();
+    
+    private static final VarHandle DESCENDANT_COUNT;
+    
+    private static final VarHandle EXTENSION;
+    
+    private static final VarHandle TREE_STATE;
+    
+    private static final VarHandle LINEAGE_EPOCH;
+    
+    private static final AtomicLong EPOCH = new AtomicLong(1);
+    
+    private static final AtomicInteger SNAPSHOTS = new AtomicInteger();
+    
+    private static final AtomicInteger OBSERVED = new AtomicInteger();
+    
+    static
+    {
+        try
+        {
+            DESCENDANT_COUNT = MethodHandles.lookup().findVarHandle(AbstractTree.class, "descendantCount", int.class);
+            EXTENSION = MethodHandles.lookup().findVarHandle(AbstractTree.class, "extension", Extension.class);
+            TREE_STATE = MethodHandles.lookup().findVarHandle(Extension.class, "tree", TreeState.class);
+            LINEAGE_EPOCH = MethodHandles.lookup().findVarHandle(TreeState.class, "lineageEpoch", long.class);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    
+    /**
+     * The hashed index of a node's children by value.  Each value is mapped to the
+     * first child holding it, the later holders of a value are counted per value so
+     * that the first holder is only searched for when a duplicated value loses it.
+     */
+    private static class ChildIndex extends HashMap<Object, AbstractTree>
+    {
+        private static final long serialVersionUID = 201008161200L;
+        
+        private final HashMap<Object, Integer> duplicates = new HashMap<Object, Integer>();
+        
+        
+        /**
+         * Counts a later holder of the value.
+         */
+        void duplicate(Object value)
+        {
+            Integer count = duplicates.get(value);
+            duplicates.put(value, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+        
+        
+        /**
+         * Uncounts a later holder of the value, returning false if the value has no
+         * later holders.
+         */
+        boolean unduplicate(Object value)
+        {
+            Integer count = duplicates.get(value);
+            if (count == null)
+            {
+                return false;
+            }
+            if (count.intValue() == 1)
+            {
+                duplicates.remove(value);
+            } else
+            {
+                duplicates.put(value, Integer.valueOf(count.intValue() - 1));
+            }
+            return true;
+        }
+    }
+    
+    
+    /**
+     * The links and value of a node as they were before it was changed, kept while
+     * a snapshot may still read them.  <code>version</code> is the epoch the state
+     * was written in, the states of a node are chained from newest to oldest.
+     */
+    static final class NodeState
+    {
+        final long version;
+        
+        final AbstractTree parent;
+        
+        final AbstractTree child;
+        
+        final AbstractTree nextSibling;
+        
+        final AbstractTree previousSibling;
+        
+        final Object value;
+        
+        NodeState older;
+        
+        
+        private NodeState(long version, AbstractTree node, NodeState older)
+        {
+            this.version = version;
+            this.parent = node.parent;
+            this.child = node.child;
+            this.nextSibling = node.nextSibling;
+            this.previousSibling = node.previousSibling;
+            this.value = node.getValue();
+            this.older = older;
+        }
+    }
+    
+    
+    /**
+     * The snapshots open on a tree and the nodes of the tree with preserved states.
+     * A node removed from a tree with open snapshots shares the snapshots of the
+     * tree, as the snapshots may still read it.  When a tree with open snapshots
+     * joins another tree its snapshots are moved into those of the other tree and
+     * <code>forward</code> is set to them.
+     */
+    static final class Snapshots
+    {
+        final ConcurrentSkipListSet<Long> open = new ConcurrentSkipListSet<Long>();
+        
+        final ConcurrentLinkedQueue<AbstractTree> preserved = new ConcurrentLinkedQueue<AbstractTree>();
+        
+        volatile Snapshots forward;
+        
+        
+        private Snapshots()
+        {
+        }
+    }
+    
+    
+    /**
+     * The cached root and depth of a node, valid while <code>epoch</code> is the
+     * lineage epoch of the root.  The epoch of a tree advances whenever a node of
+     * the tree with a valid lineage is moved, so a node with a valid lineage always
+     * has ancestors with valid lineages, and changes to one tree leave the lineages
+     * cached in other trees valid.
+     */
+    private static final class Lineage
+    {
+        final AbstractTree root;
+        
+        final int depth;
+        
+        final long epoch;
+        
+        
+        private Lineage(AbstractTree root, int depth, long epoch)
+        {
+            this.root = root;
+            this.depth = depth;
+            this.epoch = epoch;
+        }
+    }
+    
+    
+    /**
+     * The state of a node that most nodes never need, created when it is first
+     * needed: the indexes of the node's children, its interval label, the states
+     * preserved for open snapshots and, on a root node, the state of the tree.
+     */
+    private static final class Extension
+    {
+        ChildIndex childIndex;
+        
+        ChildPositions childPositions;
+        
+        IntervalIndex.Label interval;
+        
+        volatile long version;
+        
+        volatile NodeState history;
+        
+        volatile TreeState tree;
+    }
+    
+    
+    /**
+     * The state of a tree, held by its root node.  The listeners and snapshots are
+     * moved to the new root when the root joins another tree, the lineage epoch
+     * stays with the node as the lineages cached beneath it still name it.
+     */
+    private static final class TreeState
+    {
+        volatile long lineageEpoch;
+        
+        volatile CopyOnWriteArrayList<TreeListener> listeners;
+        
+        volatile Snapshots snapshots;
+    }
+    
+    
+    /**
+     * A block of consecutive children in a ChildPositions index.
+     */
+    private static class PositionBlock
+    {
+        private AbstractTree[] nodes = new AbstractTree[ChildPositions.BLOCK_SIZE];
+        
+        private int size;
+        
+        private int index;
+    }
+    
+    
+    /**
+     * The positional index of a node's children.  The children are held in order in
+     * a list of blocks with the start position of each block, so a child is located
+     * by position with a binary search over the blocks.  The first child of each
+     * block is mapped to its block, so the block holding a child is found by walking
+     * back through its previous siblings to the first child of the block.  Changing
+     * the size of a block only invalidates the start positions of the blocks
+     * following it, which are recalculated on the next lookup.
+     */
+    private static class ChildPositions
+    {
+        private static final int BLOCK_SIZE = 128;
+        
+        private final ArrayList<PositionBlock> blocks = new ArrayList<PositionBlock>();
+        
+        private final IdentityHashMap<AbstractTree, PositionBlock> firsts = new IdentityHashMap<AbstractTree, PositionBlock>();
+        
+        private int[] starts = new int[16];
+        
+        private int validStarts;
+        
+        
+        private ChildPositions(AbstractTree parent)
+        {
+            PositionBlock block = null;
+            for (AbstractTree node = parent.child; node != null; node = node.nextSibling)
+            {
+                if (block == null || block.size == BLOCK_SIZE)
+                {
+                    block = new PositionBlock();
+                    block.index = blocks.size();
+                    blocks.add(block);
+                    firsts.put(node, block);
+                }
+                block.nodes[block.size++] = node;
+            }
+        }
+        
+        
+        private int start(int block)
+        {
+            if (block >= validStarts)
+            {
+                if (starts.length < blocks.size())
+                {
+                    starts = Arrays.copyOf(starts, Math.max(blocks.size(), starts.length * 2));
+                }
+                for (int index = validStarts; index <= block; index++)
+                {
+                    starts[index] = index == 0 ? 0 : starts[index - 1] + blocks.get(index - 1).size;
+                }
+                validStarts = block + 1;
+            }
+            return starts[block];
+        }
+        
+        
+        private void invalidate(PositionBlock block)
+        {
+            validStarts = Math.min(validStarts, block.index + 1);
+        }
+        
+        
+        private AbstractTree get(int position)
+        {
+            int low = 0;
+            int high = blocks.size() - 1;
+            while (low < high)
+            {
+                int middle = (low + high + 1) >>> 1;
+                if (start(middle) <= position)
+                {
+                    low = middle;
+                } else
+                {
+                    high = middle - 1;
+                }
+            }
+            
+            int offset = position - start(low);
+            PositionBlock block = blocks.get(low);
+            return offset >= 0 && offset < block.size ? block.nodes[offset] : null;
+        }
+        
+        
+        /**
+         * Returns the block holding the node, or null if the node is not held.
+         */
+        private PositionBlock blockOf(AbstractTree node)
+        {
+            AbstractTree first = node;
+            for (int steps = 0; first != null && steps < BLOCK_SIZE; steps++, first = first.previousSibling)
+            {
+                PositionBlock block = firsts.get(first);
+                if (block != null)
+                {
+                    // Searched from the end, appending is the common case.
+                    for (int offset = block.size - 1; offset >= 0; offset--)
+                    {
+                        if (block.nodes[offset] == node)
+                        {
+                            return block;
+                        }
+                    }
+                    return null;
+                }
+            }
+            return null;
+        }
+        
+        
+        private static int offsetOf(PositionBlock block, AbstractTree node)
+        {
+            int offset = block.size - 1;
+            while (block.nodes[offset] != node)
+            {
+                offset--;
+            }
+            return offset;
+        }
+        
+        
+        private int indexOf(AbstractTree node)
+        {
+            PositionBlock block = blockOf(node);
+            return block != null ? start(block.index) + offsetOf(block, node) : -1;
+        }
+        
+        
+        /**
+         * Inserts the node after its previous sibling, returning false if the
+         * previous sibling is not held.
+         */
+        private boolean insertAfter(AbstractTree previous, AbstractTree node)
+        {
+            PositionBlock block;
+            int offset;
+            if (previous == null)
+            {
+                if (blocks.isEmpty())
+                {
+                    block = new PositionBlock();
+                    blocks.add(block);
+                }
+                block = blocks.get(0);
+                offset = 0;
+            } else
+            {
+                block = blockOf(previous);
+                if (block == null)
+                {
+                    return false;
+                }
+                offset = offsetOf(block, previous) + 1;
+            }
+            
+            if (block.size == BLOCK_SIZE)
+            {
+                // Split the full block, moving its upper half into a new block.
+                PositionBlock upper = new PositionBlock();
+                int half = BLOCK_SIZE / 2;
+                System.arraycopy(block.nodes, half, upper.nodes, 0, BLOCK_SIZE - half);
+                Arrays.fill(block.nodes, half, BLOCK_SIZE, null);
+                upper.size = BLOCK_SIZE - half;
+                block.size = half;
+                firsts.put(upper.nodes[0], upper);
+                blocks.add(block.index + 1, upper);
+                renumber(block.index + 1);
+                if (offset > half)
+                {
+                    block = upper;
+                    offset -= half;
+                }
+            }
+            
+            if (offset == 0)
+            {
+                if (block.size > 0)
+                {
+                    firsts.remove(block.nodes[0]);
+                }
+                firsts.put(node, block);
+            }
+            System.arraycopy(block.nodes, offset, block.nodes, offset + 1, block.size - offset);
+            block.nodes[offset] = node;
+            block.size++;
+            invalidate(block);
+            return true;
+        }
+        
+        
+        /**
+         * Removes the node, returning false if the node is not held.
+         */
+        private boolean remove(AbstractTree node)
+        {
+            PositionBlock block = blockOf(node);
+            if (block == null)
+            {
+                return false;
+            }
+            int offset = offsetOf(block, node);
+            
+            System.arraycopy(block.nodes, offset + 1, block.nodes, offset, block.size - offset - 1);
+            block.nodes[--block.size] = null;
+            if (offset == 0)
+            {
+                firsts.remove(node);
+                if (block.size > 0)
+                {
+                    firsts.put(block.nodes[0], block);
+                }
+            }
+            invalidate(block);
+            if (block.size == 0)
+            {
+                blocks.remove(block.index);
+                renumber(block.index);
+            }
+            return true;
+        }
+        
+        
+        private void renumber(int from)
+        {
+            for (int index = from; index < blocks.size(); index++)
+            {
+                blocks.get(index).index = index;
+            }
+            validStarts = Math.min(validStarts, from);
+        }
+    }
+    
 
     protected class TreeList extends AbstractList<T>
     {
@@ -54,17 +523,18 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
             // Find first Sibling.
             if (node != null)
             {
-                if (node.parent != null)
+                AbstractTree current = node;
+                if (current.parent != null)
                 {
-                    firstNode = node.parent.child;
+                    current = current.parent.child;
                 } else
                 {
-                    firstNode = node;
-                    while (firstNode.previousSibling != null)
+                    while (current.previousSibling != null)
                     {
-                        firstNode = firstNode.previousSibling;
+                        current = current.previousSibling;
                     }
                 }
+                firstNode = (T) current;
             } else
             {
                 firstNode = null;
@@ -127,6 +597,19 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
         @Override
         public int size()
         {
+            // Children and descendants are counted as they are added and removed.
+            AbstractTree parent = firstNode != null ? ((AbstractTree) firstNode).parent : null;
+            if (parent != null && siblings)
+            {
+                if (!recursive)
+                {
+                    return ignoreNode != null && ((AbstractTree) ignoreNode).parent == parent ? parent.childCount - 1 : parent.childCount;
+                } else if (ignoreNode == null)
+                {
+                    return getDescendantCount(parent);
+                }
+            }
+            
             int count = 0;
             Iterator<T> iterator = iterator();
             while (iterator.hasNext() && iterator.next() != null)
@@ -141,6 +624,22 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
         @Override
         public T get(int index)
         {
+            int size = size();
+            if (index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size - 1));
+            }
+            
+            ChildPositions positions = getPositions();
+            if (positions != null)
+            {
+                if (ignoreNode != null && index >= positions.indexOf((AbstractTree) ignoreNode))
+                {
+                    index++;
+                }
+                return (T) positions.get(index);
+            }
+            
             int count = 0;
             Iterator<T> iterator = iterator();
             T value;
@@ -152,23 +651,105 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
                 }
             }
             
-            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size() - 1));
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size - 1));
         }
-    }
-    
-    
-    /**
-     * Creates a new Tree node with the specified value.
-     */
-    public AbstractTree()
-    {
-    }
-    
-
-    /**
-     * Creates a new Tree node with the specified value.
-     * 
-     * @param value The value
+        
+        
+        /**
+         * Inserts the node at the specified position in the list.
+         * 
+         * @see java.util.AbstractList#add(int, java.lang.Object)
+         */
+        @Override
+        public void add(int index, T newNode)
+        {
+            if (index == size())
+            {
+                add(newNode);
+            } else
+            {
+                AbstractTree.add(get(index), newNode, PREVIOUS);
+            }
+        }
+        
+        
+        /**
+         * @see java.util.AbstractList#indexOf(java.lang.Object)
+         */
+        @Override
+        public int indexOf(Object object)
+        {
+            ChildPositions positions = getPositions();
+            if (positions != null && object instanceof Tree && ((Tree) object).getValue() != null)
+            {
+                // The child index holds the first child equal to the value.
+                AbstractTree parent = ((AbstractTree) firstNode).parent;
+                ChildIndex index = getChildIndex(parent);
+                if (index != null)
+                {
+                    AbstractTree node = index.get(((Tree) object).getValue());
+                    if (node == null)
+                    {
+                        return -1;
+                    } else if (node != ignoreNode)
+                    {
+                        int position = positions.indexOf(node);
+                        return ignoreNode != null && position > positions.indexOf((AbstractTree) ignoreNode) ? position - 1 : position;
+                    }
+                }
+            }
+            
+            return super.indexOf(object);
+        }
+        
+        
+        /**
+         * Returns the positional index of the children when this is a list of the
+         * children or siblings of a parent with enough children to be indexed.
+         */
+        private ChildPositions getPositions()
+        {
+            AbstractTree parent = firstNode != null ? ((AbstractTree) firstNode).parent : null;
+            return parent != null && siblings && !recursive ? getChildPositions(parent) : null;
+        }
+        
+        
+        /**
+         * @see java.util.Collection#spliterator()
+         */
+        @Override
+        public Spliterator<T> spliterator()
+        {
+            return new TreeSpliterator<T>(firstNode, siblings, recursive, ignoreNode);
+        }
+    }
+    
+    
+    /**
+     * The list of the children or siblings of a node.  Once the parent has enough
+     * children, positional access uses the positional index of the children.
+     */
+    protected class ChildList extends TreeList implements RandomAccess
+    {
+        public ChildList(T node, T ignoreNode)
+        {
+            super(node, false, true, ignoreNode);
+        }
+    }
+    
+    
+    /**
+     * Creates a new Tree node with the specified value.
+     */
+    public AbstractTree()
+    {
+    }
+    
+
+    /**
+     * Creates a new Tree node with the specified value.
+     * 
+     * @param value The value
      */
     public AbstractTree(V value)
     {
@@ -206,11 +787,23 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     
     private T child;
     
+    private T lastChild;
+    
     private T nextSibling;
     
     private T previousSibling;
     
-
+    private int childCount;
+    
+    private int descendantCount;
+    
+    private int childIndexThreshold;
+    
+    private transient Lineage lineage;
+    
+    private transient volatile Extension extension;
+    
+    
     /* (non-Javadoc)
      * @see net.posick.Tree#getParent()
      */
@@ -226,6 +819,9 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public void setParent(T parent)
     {
+        preserve(this);
+        linksChanging(this);
+        moving(this);
         this.parent = parent;
     }
     
@@ -245,7 +841,22 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public void setFirstChild(T child)
     {
+        preserve(this);
+        linksChanging(this);
         this.child = child;
+        this.lastChild = null;
+        setChildPositions(this, null);
+    }
+    
+    
+    /**
+     * Gets the last child for this node in the Tree.
+     * 
+     * @return the the last child for this node in the Tree
+     */
+    public T getLastChild()
+    {
+        return (T) getLastChild(this);
     }
     
 
@@ -264,6 +875,8 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public void setNextSibling(T nextSibling)
     {
+        preserve(this);
+        linksChanging(this);
         this.nextSibling = nextSibling;
     }
     
@@ -283,6 +896,8 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public void setPreviousSibling(T previousSibling)
     {
+        preserve(this);
+        linksChanging(this);
         this.previousSibling = previousSibling;
     }
     
@@ -303,7 +918,19 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     @Override
     public T add(V value, int mode)
     {
-        return (T) add(this, newInstance((Class<? extends AbstractTree>) getClass(), value), mode);
+        return (T) add(this, getNodeFactory().newNode(value), mode);
+    }
+    
+    
+    /**
+     * Returns the factory used to create new nodes for values added to this node.
+     * Subclasses may override this method to supply their factory directly.
+     * 
+     * @return The node factory
+     */
+    protected NodeFactory<T, V> getNodeFactory()
+    {
+        return getNodeFactory(getClass());
     }
     
     
@@ -317,7 +944,7 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public T addChild(V value)
     {
-        return (T) add(this, newInstance((Class<? extends AbstractTree>) getClass(), value), LASTCHILD);
+        return (T) add(this, getNodeFactory().newNode(value), LASTCHILD);
     }
     
     
@@ -331,7 +958,7 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public T addSibling(V value)
     {
-        return (T) add(this, newInstance((Class<? extends AbstractTree>) getClass(), value), LAST);
+        return (T) add(this, getNodeFactory().newNode(value), LAST);
     }
     
 
@@ -343,6 +970,12 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     {
         if (value != null)
         {
+            ChildIndex index = getChildIndex(this);
+            if (index != null)
+            {
+                return (T) index.get(value);
+            }
+            
             List<T> children = getChildren();
             for (T node : children)
             {
@@ -364,6 +997,16 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     {
         if (value != null)
         {
+            if (parent != null)
+            {
+                // Only scan when this node is the first holder of the value.
+                T node = parent.getChild(value);
+                if (node != this)
+                {
+                    return node;
+                }
+            }
+            
             List<T> children = getSiblings();
             for (T node : children)
             {
@@ -447,6 +1090,298 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     }
     
     
+    /**
+     * Returns the number of direct children of this node.  The count is maintained
+     * by <code>add</code>, <code>remove</code> and <code>replace</code>.
+     * 
+     * @return The number of direct children of this node
+     */
+    public int getChildCount()
+    {
+        return childCount;
+    }
+    
+    
+    /**
+     * Returns the number of nodes beneath this node, recursively.  The count is
+     * maintained by <code>add</code>, <code>remove</code> and <code>replace</code>.
+     * 
+     * @return The number of descendants of this node
+     */
+    public int getDescendantCount()
+    {
+        return getDescendantCount(this);
+    }
+    
+    
+    /**
+     * Returns the position of this node among the children of its parent.  Once
+     * the parent has enough children the position is found from the positional
+     * index of the children, rather than by walking the siblings.
+     * 
+     * @return The position of this node, 0 for the first child
+     */
+    public int getPosition()
+    {
+        ChildPositions positions = parent != null ? getChildPositions(parent) : null;
+        int position = positions != null ? positions.indexOf(this) : -1;
+        if (position < 0)
+        {
+            position = 0;
+            for (AbstractTree node = this; node.previousSibling != null && node.previousSibling.nextSibling == node; node = node.previousSibling)
+            {
+                position++;
+            }
+        }
+        return position;
+    }
+    
+    
+    /**
+     * Sets the number of children at which this node builds a hashed index of its
+     * children by value, making <code>getChild(V)</code> and <code>getSibling(V)</code>
+     * constant time.  The index is built lazily on the next lookup and maintained
+     * as children are added, removed, replaced or change value.  Nodes added
+     * beneath this node inherit the threshold.
+     * 
+     * @param threshold The number of children at which the index is built, 0 disables the index
+     */
+    public void setChildIndexThreshold(int threshold)
+    {
+        childIndexThreshold = threshold > 0 ? threshold : 0;
+        if (childIndexThreshold == 0)
+        {
+            setChildIndex(this, null);
+        }
+    }
+    
+    
+    /**
+     * Returns the number of children at which this node indexes its children by value.
+     * 
+     * @return The child index threshold, 0 if the children are not indexed
+     */
+    public int getChildIndexThreshold()
+    {
+        return childIndexThreshold;
+    }
+    
+    
+    /**
+     * Sets the child index threshold of this node and its descendants, nodes added
+     * later inherit the threshold of their parent.  Once indexed, each level of a
+     * path is resolved by <code>find</code> with a single hash probe, the indexes
+     * are kept in step as nodes are added, removed, replaced or change value.
+     * 
+     * @param threshold The number of children at which a node indexes its
+     *            children, 1 to index every node with children, 0 to drop the indexes
+     */
+    public void indexPaths(int threshold)
+    {
+        setChildIndexThreshold(threshold);
+        for (T node : getDescendants())
+        {
+            node.setChildIndexThreshold(threshold);
+        }
+    }
+    
+    
+    /**
+     * Returns the node at the path beneath this node, each value of the path
+     * selecting a child of the node selected by the previous value.  An empty path
+     * selects this node.
+     * 
+     * @param path The values of the nodes beneath this node
+     * @return The node or null if the path is not in the tree
+     * @see indexPaths(int)
+     */
+    public T find(List<V> path)
+    {
+        T node = (T) this;
+        for (Iterator<V> values = path.iterator(); node != null && values.hasNext(); )
+        {
+            node = node.getChild(values.next());
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Returns the node at the path beneath this node, adding the nodes of the path
+     * that are not in the tree.
+     * 
+     * @param path The values of the nodes beneath this node
+     * @return The node at the path
+     * @see find(List)
+     */
+    public T findOrCreate(List<V> path)
+    {
+        T node = (T) this;
+        boolean created = false;
+        for (V value : path)
+        {
+            // the children of a node that was just added need not be searched
+            T child = created ? null : node.getChild(value);
+            created = child == null;
+            node = created ? node.addChild(value) : child;
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Labels the tree this node belongs to with an interval index, making ancestor
+     * tests and depth lookups constant time.  The index is kept up to date as nodes
+     * are added and removed, if the tree already has a valid index it is returned.
+     * 
+     * @return The interval index of the tree
+     * @see IntervalIndex
+     */
+    public IntervalIndex indexIntervals()
+    {
+        AbstractTree root = (AbstractTree) getRoot();
+        IntervalIndex.Label label = intervalOf(root);
+        if (label != null && label.index.isValid() && label.index.getRoot() == root)
+        {
+            return label.index;
+        }
+        return new IntervalIndex(root);
+    }
+    
+    
+    /**
+     * Returns true if this node is an ancestor of the node.  When both nodes are
+     * labelled by a valid interval index their labels are compared, otherwise the
+     * parents of the node are walked.
+     * 
+     * @param node The node
+     * @return True if this node is an ancestor of the node
+     */
+    public boolean isAncestorOf(AbstractTree node)
+    {
+        IntervalIndex.Label label = intervalOf(this);
+        IntervalIndex.Label other = intervalOf(node);
+        if (label != null && other != null && label.index == other.index && label.index.isValid())
+        {
+            return label.enter < other.enter && other.exit < label.exit;
+        }
+        
+        for (AbstractTree ancestor = node != null ? node.getParent() : null; ancestor != null; ancestor = ancestor.getParent())
+        {
+            if (ancestor == this)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Returns true if this node is a descendant of the node.
+     * 
+     * @param node The node
+     * @return True if this node is a descendant of the node
+     * @see isAncestorOf(AbstractTree)
+     */
+    public boolean isDescendantOf(AbstractTree node)
+    {
+        return node != null && node.isAncestorOf(this);
+    }
+    
+    
+    /**
+     * Returns the number of ancestors of this node, the root node has a depth of 0.
+     * The depth is held in the label of a node with a valid interval index, otherwise
+     * it is cached with the root of the node until a node above it is moved.
+     * 
+     * @return The depth of this node
+     */
+    public int getDepth()
+    {
+        IntervalIndex.Label label = intervalOf(this);
+        if (label != null && label.index.isValid())
+        {
+            return label.depth;
+        }
+        return lineageOf(this).depth;
+    }
+    
+    
+    /**
+     * Returns the ancestor of this node at the depth, this node at its own depth.
+     * With a valid interval index the jump pointers of the labels are followed,
+     * taking logarithmic time, otherwise the parents are walked.
+     * 
+     * @param depth The depth of the ancestor, the root node has a depth of 0
+     * @return The ancestor or null if the depth is greater than the depth of this node
+     */
+    public T getAncestor(int depth)
+    {
+        IntervalIndex.Label label = intervalOf(this);
+        if (label != null && label.index.isValid())
+        {
+            return (T) label.index.getAncestor(this, depth);
+        }
+        
+        int current = getDepth();
+        if (depth < 0 || depth > current)
+        {
+            return null;
+        }
+        
+        T node = (T) this;
+        for (; current > depth; current--)
+        {
+            node = node.getParent();
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Returns the lowest common ancestor of this node and the node, the deepest
+     * node that is either node or an ancestor of both.  With a valid interval index
+     * the labels are used, taking logarithmic time, otherwise the parents of the
+     * deeper node are walked to the depth of the other and both are walked together.
+     * 
+     * @param node The node
+     * @return The lowest common ancestor or null if the nodes are in different trees
+     */
+    public T getCommonAncestor(T node)
+    {
+        IntervalIndex.Label label = intervalOf(this);
+        IntervalIndex.Label other = intervalOf((AbstractTree) node);
+        if (label != null && other != null && label.index == other.index && label.index.isValid())
+        {
+            return (T) label.index.getCommonAncestor(this, node);
+        }
+        if (node == null)
+        {
+            return null;
+        }
+        
+        T a = (T) this;
+        T b = node;
+        int depthA = a.getDepth();
+        int depthB = b.getDepth();
+        for (; depthA > depthB; depthA--)
+        {
+            a = a.getParent();
+        }
+        for (; depthB > depthA; depthB--)
+        {
+            b = b.getParent();
+        }
+        while (a != b)
+        {
+            a = a.getParent();
+            b = b.getParent();
+        }
+        return a;
+    }
+    
+    
     /* (non-Javadoc)
      * @see net.posick.Tree#getDescendants()
      */
@@ -463,7 +1398,7 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     @Override
     public List<T> getChildren()
     {
-        return new TreeList(child, false, true, null);
+        return new ChildList(child, null);
     }
     
 
@@ -488,7 +1423,31 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     @Override
     public List<T> getSiblings()
     {
-        return new TreeList((T) this, false, true, (T) this);
+        return new ChildList((T) this, (T) this);
+    }
+    
+    
+    /**
+     * Returns a sequential Stream of this node and its descendants, in preorder.
+     * 
+     * @return The Stream of the nodes of this subtree
+     */
+    public Stream<T> stream()
+    {
+        return StreamSupport.stream(new TreeSpliterator<T>((T) this, false, true, null), false);
+    }
+    
+    
+    /**
+     * Returns a parallel Stream of this node and its descendants.  The nodes are
+     * split at subtree boundaries, the tree must not be modified while the Stream
+     * is in use.
+     * 
+     * @return The Stream of the nodes of this subtree
+     */
+    public Stream<T> parallelStream()
+    {
+        return StreamSupport.stream(new TreeSpliterator<T>((T) this, false, true, null), true);
     }
     
     
@@ -505,9 +1464,103 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     @Override
     public abstract void setValue(V value);
     
-
-    /* (non-Javadoc)
-     * @see net.posick.Tree#getRoot()
+    
+    /**
+     * Called by implementations of <code>setValue</code> before the value of this
+     * node is changed, preserves the value for the open snapshots reading it.
+     */
+    protected void valueChanging()
+    {
+        preserve(this);
+    }
+    
+    
+    /**
+     * Called by implementations of <code>setValue</code> after the value of this
+     * node has changed, keeps the indexes of the parent node consistent.
+     * 
+     * @param oldValue The previous value
+     * @param newValue The new value
+     */
+    protected void valueChanged(V oldValue, V newValue)
+    {
+        AbstractTree parent = this.parent;
+        if (parent != null && childIndexOf(parent) != null)
+        {
+            unindexChild(parent, this, oldValue);
+            if (childIndexOf(parent) != null)
+            {
+                indexChild(parent, this, newValue, nextSibling == null);
+            }
+        }
+        AbstractTree root = observerOf(this);
+        if (root != null)
+        {
+            fire(root, new TreeEvent(TreeEvent.VALUE_CHANGED, this, parent, null, oldValue, newValue, 1));
+        }
+    }
+    
+
+    /**
+     * Returns true if the value of this node is held in the child index of its
+     * parent or its tree is being listened to, implementations storing unboxed values
+     * only need to call <code>valueChanged</code> when this returns true.
+     * 
+     * @return True if the parent indexes the value of this node
+     */
+    protected boolean isValueIndexed()
+    {
+        return (parent != null && childIndexOf((AbstractTree) parent) != null) || observerOf(this) != null;
+    }
+    
+    
+    /**
+     * Adds a listener notified of the changes made to the tree this node belongs
+     * to.  The listener is held by the root node of the tree, it is moved to a new
+     * root when a parent is added above the root node, and joins the listeners of
+     * another tree when the root node is added beneath a node of that tree.
+     * 
+     * @param listener The listener
+     * @see CoalescingTreeListener
+     */
+    public void addTreeListener(TreeListener<T, V> listener)
+    {
+        AbstractTree root = lineageOf(this).root;
+        synchronized (root)
+        {
+            TreeState tree = treeStateOf(root);
+            if (tree.listeners == null)
+            {
+                tree.listeners = new CopyOnWriteArrayList<TreeListener>();
+                OBSERVED.incrementAndGet();
+            }
+            tree.listeners.add(listener);
+        }
+    }
+    
+    
+    /**
+     * Removes a listener from the tree this node belongs to.
+     * 
+     * @param listener The listener
+     */
+    public void removeTreeListener(TreeListener<T, V> listener)
+    {
+        AbstractTree root = lineageOf(this).root;
+        synchronized (root)
+        {
+            TreeState tree = treeOf(root);
+            if (tree != null && tree.listeners != null && tree.listeners.remove(listener) && tree.listeners.isEmpty())
+            {
+                tree.listeners = null;
+                OBSERVED.decrementAndGet();
+            }
+        }
+    }
+
+
+    /* (non-Javadoc)
+     * @see net.posick.Tree#getRoot()
      */
     @Override
     public T getRoot()
@@ -523,7 +1576,7 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     {
         final StringBuilder buffer = new StringBuilder();
         
-        traverse(getRoot(), new TraverseAction<T, V>()
+        getRoot().traverse(new TraverseAction<T, V>()
         {
             public int action(AbstractTree node, int level)
             {
@@ -566,18 +1619,92 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      */
     public static <T extends AbstractTree> T add(AbstractTree refNode, AbstractTree newNode, int mode)
     {
+        if (!refNode.inheritsLinks())
+        {
+            return (T) refNode.add(newNode, mode);
+        }
+        
+        add(refNode, newNode, mode, false);
+        AbstractTree root = observerOf(newNode);
+        if (root != null)
+        {
+            fire(root, new TreeEvent(TreeEvent.NODE_ADDED, newNode, newNode.parent, null, null, null, 1));
+        }
+        return (T) newNode;
+    }
+    
+    
+    /**
+     * Adds a node to the tree, deferring the maintenance of the counts and indexes
+     * if requested.  Deferred counts are invalidated and recounted on demand,
+     * deferred child indexes are discarded and rebuilt on the next lookup and
+     * interval indexes are not updated.
+     * 
+     * @param refNod The reference node, reference point within tree
+     * @param newNode The node that is to be added.
+     * @param mode The node indicator, how the node will be added
+     * @param deferred True to defer the maintenance of the counts and indexes
+     */
+    static <T extends AbstractTree> T add(AbstractTree refNode, AbstractTree newNode, int mode, boolean deferred)
+    {
+        AbstractTree last;
+        
+        Snapshots snapshots = openSnapshotsOf(refNode);
+        if (snapshots != null)
+        {
+            preserveLinks(snapshots, refNode, newNode, mode);
+        } else
+        {
+            preserve(newNode);
+        }
+        moving(newNode);
+        if (mode == PARENT)
+        {
+            moving(refNode);
+        }
+        
         switch (mode)
         {
             case PARENT:
-                newNode.parent = refNode.getParent();
-                newNode.child = refNode;
+                // The new node takes the place of the reference node among its
+                // siblings and adopts the reference node as its only child.
+                unlinking(refNode, deferred);
+                newNode.parent = refNode.parent;
+                newNode.nextSibling = refNode.nextSibling;
+                newNode.previousSibling = refNode.previousSibling;
                 if (refNode.parent != null)
                 {
-                    refNode.parent.child = newNode;
+                    if (refNode.parent.child == refNode)
+                    {
+                        refNode.parent.child = newNode;
+                    }
+                    if (refNode.nextSibling == null)
+                    {
+                        refNode.parent.lastChild = newNode;
+                    }
+                }
+                if (refNode.nextSibling != null)
+                {
+                    refNode.nextSibling.previousSibling = newNode;
+                }
+                if (refNode.previousSibling != null)
+                {
+                    refNode.previousSibling.nextSibling = newNode;
                 }
+                newNode.child = refNode;
+                newNode.lastChild = refNode;
                 refNode.parent = newNode;
-                newNode.nextSibling = null;
-                newNode.previousSibling = null;
+                refNode.nextSibling = null;
+                refNode.previousSibling = null;
+                newNode.childCount = 1;
+                newNode.descendantCount = refNode.descendantCount < 0 ? -1 : 1 + refNode.descendantCount;
+                setChildIndex(newNode, null);
+                setChildPositions(newNode, null);
+                if (newNode.parent == null)
+                {
+                    moveListeners(refNode, newNode);
+                    moveSnapshots(refNode, newNode);
+                }
                 break;
             case LASTCHILD:
             case CHILD:
@@ -602,25 +1729,27 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
                         refNode.previousSibling = newNode;
                     } else if (mode == LASTCHILD)
                     {
-                        refNode = (T) refNode.child;
-                        while (refNode.nextSibling != null)
-                        {
-                            refNode = (T) refNode.nextSibling;
-                        }
-                        newNode.parent = refNode.parent;
+                        last = getLastChild(refNode);
+                        newNode.parent = refNode;
                         newNode.nextSibling = null;
-                        newNode.previousSibling = refNode;
-                        refNode.nextSibling = newNode;
+                        newNode.previousSibling = last;
+                        last.nextSibling = newNode;
+                        refNode.lastChild = newNode;
                     }
                 } else
                 {
                     refNode.child = newNode;
+                    refNode.lastChild = newNode;
                     newNode.parent = refNode;
                     newNode.nextSibling = null;
                     newNode.previousSibling = null;
                 }
                 break;
             case NEXT:
+                if (refNode.nextSibling == null && refNode.parent != null)
+                {
+                    refNode.parent.lastChild = newNode;
+                }
                 newNode.parent = refNode.parent;
                 newNode.nextSibling = refNode.nextSibling;
                 newNode.previousSibling = refNode;
@@ -631,7 +1760,7 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
                 refNode.nextSibling = newNode;
                 break;
             case PREVIOUS:
-                if (refNode.parent.child == refNode)
+                if (refNode.parent != null && refNode.parent.child == refNode)
                 {
                     refNode.parent.child = newNode;
                 }
@@ -645,19 +1774,35 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
                 refNode.previousSibling = newNode;
                 break;
             case LAST:
-                while (refNode.nextSibling != null)
+                if (refNode.parent != null)
                 {
-                    refNode = (T) refNode.nextSibling;
-                }
-                newNode.parent = refNode.parent;
-                newNode.nextSibling = refNode.nextSibling;
-                newNode.previousSibling = refNode;
-                if (refNode.nextSibling != null)
+                    last = getLastChild(refNode.parent);
+                    refNode.parent.lastChild = newNode;
+                } else
                 {
-                    refNode.nextSibling.previousSibling = newNode;
+                    // Top level siblings have no parent to cache the tail in.
+                    last = refNode;
+                    while (last.nextSibling != null)
+                    {
+                        last = last.nextSibling;
+                    }
                 }
-                refNode.nextSibling = newNode;
+                newNode.parent = last.parent;
+                newNode.nextSibling = null;
+                newNode.previousSibling = last;
+                last.nextSibling = newNode;
                 break;
+            default:
+                return (T) newNode;
+        }
+        
+        linked(newNode, deferred);
+        if (newNode.parent != null && treeOf(newNode) != null)
+        {
+            // The root of an observed or snapshot tree joined another tree.
+            AbstractTree root = lineageOf(newNode).root;
+            moveListeners(newNode, root);
+            moveSnapshots(newNode, root);
         }
         
         return (T) newNode;
@@ -674,14 +1819,24 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     {
         if (oldNode == null)
             return;
+        if (!oldNode.inheritsLinks())
+        {
+            oldNode.replace(newNode);
+            return;
+        }
         if (newNode == null)
         {
             remove(oldNode);
             return;
         }
         
-        add(oldNode, newNode, PREVIOUS);
-        remove(oldNode);
+        add(oldNode, newNode, PREVIOUS, false);
+        remove(oldNode, false);
+        AbstractTree root = observerOf(newNode);
+        if (root != null)
+        {
+            fire(root, new TreeEvent(TreeEvent.NODE_REPLACED, newNode, newNode.parent, oldNode, null, null, 1));
+        }
     }
     
 
@@ -691,12 +1846,54 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
      * @param refNod The node to be removed from the tree.
      */
     public static void remove(AbstractTree refNod)
+    {
+        if (refNod == null)
+            return;
+        if (!refNod.inheritsLinks())
+        {
+            refNod.remove();
+            return;
+        }
+        
+        AbstractTree root = observerOf(refNod);
+        AbstractTree parent = refNod.parent;
+        remove(refNod, false);
+        if (root != null)
+        {
+            fire(root, new TreeEvent(TreeEvent.NODE_REMOVED, refNod, parent, null, null, null, 1));
+        }
+    }
+    
+    
+    /**
+     * Deletes the specified node and all its descendants, deferring the maintenance
+     * of the counts and indexes if requested.
+     * 
+     * @param refNod The node to be removed from the tree.
+     * @param deferred True to defer the maintenance of the counts and indexes
+     * @see add(AbstractTree, AbstractTree, int, boolean)
+     */
+    static void remove(AbstractTree refNod, boolean deferred)
     {
         if (refNod == null)
             return;
         
+        Snapshots snapshots = openSnapshotsOf(refNod);
+        unlinking(refNod, deferred);
+        moving(refNod);
+        
+        if (snapshots != null)
+        {
+            preserve(snapshots, refNod.parent);
+            preserve(snapshots, refNod.previousSibling);
+            preserve(snapshots, refNod.nextSibling);
+            preserve(snapshots, refNod);
+        }
+        
         if (refNod.parent != null && refNod.parent.child == refNod)
             refNod.parent.child = refNod.nextSibling;
+        if (refNod.parent != null && refNod.nextSibling == null)
+            refNod.parent.lastChild = refNod.previousSibling;
         if (refNod.previousSibling != null && refNod.previousSibling.nextSibling == refNod)
             refNod.previousSibling.nextSibling = refNod.nextSibling;
         if (refNod.nextSibling != null && refNod.nextSibling.previousSibling == refNod)
@@ -705,200 +1902,1624 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
         refNod.parent = null;
         refNod.nextSibling = null;
         refNod.previousSibling = null;
+        
+        if (snapshots != null)
+        {
+            // The open snapshots may still read the removed nodes.
+            synchronized (SNAPSHOTS)
+            {
+                treeStateOf(refNod).snapshots = snapshots;
+            }
+        }
     }
     
 
     /**
-     * Returns the root tree node for the specified node.
+     * Creates a batch of edits to the tree this node belongs to, applied together
+     * with deferred maintenance of the counts and indexes and reversible.
      * 
-     * @param refNod The reference node, point of reference
-     * @return The trees root node
+     * @return A new batch for the tree
+     * @see TreeBatch
      */
-    public static Tree getRoot(AbstractTree refNod)
+    public TreeBatch<T, V> batch()
     {
-        if (refNod == null)
-            return null;
-        
-        AbstractTree currentNode = refNod;
-        
-        while (currentNode.parent != null)
-        {
-            currentNode = currentNode.parent;
-        }
-        return currentNode;
+        return new TreeBatch<T, V>(getRoot());
     }
     
-    
+
     /**
-     * Traverses the tree using this node as a starting point.  The traverse action is executed for
-     * each node encountered.
+     * Takes a snapshot of the tree this node belongs to in constant time, returning
+     * this node in the snapshot.  Nodes changed after the snapshot was taken keep
+     * their previous links and value while it is open, so the snapshot reads the
+     * tree as it was, from any thread, while the tree continues to change.  The
+     * snapshot must be taken by the thread changing the tree and should be closed
+     * once it is no longer read.
      * 
-     * @param action The action to perform for each node, flow control
+     * @return This node in the snapshot
      */
-    public void traverse(TraverseAction action)
+    public TreeSnapshot<V> snapshot()
     {
-        AbstractTree.traverse(this, action);
+        return TreeSnapshot.open(this);
     }
     
-
+    
     /**
-     * Traverses the tree using the reference node as a starting point.
+     * Returns the snapshots of the tree the node belongs to, creating them if the
+     * tree has none.
      * 
-     * @param refNode The reference node, starting point
-     * @param action The action to perform for each node, flow control
+     * @param node The node
+     * @return The snapshots of the tree
      */
-    public static void traverse(AbstractTree refNode, TraverseAction action)
+    static Snapshots snapshotsOf(AbstractTree node)
     {
-        int level;
-        int result;
-        Stack<AbstractTree> stack = new Stack<AbstractTree>();
-        AbstractTree node;
-        
-        while (refNode != null)
+        synchronized (SNAPSHOTS)
         {
-            node = refNode;
-            level = stack.size() + 1;
-            result = action.action(node, level);
-            
-            switch (result)
+            TreeState tree = treeStateOf(lineageOf(node).root);
+            if (tree.snapshots == null)
             {
-                case TraverseAction.CONTINUE:
-                    if (refNode.child != null)
-                    {
-                        stack.push(refNode);
-                        refNode = refNode.child;
-                    } else if (refNode.nextSibling != null)
-                    {
-                        refNode = refNode.nextSibling;
-                    } else
-                    {
-                        refNode = null;
-                        while (stack.size() > 0 && refNode == null)
-                        {
-                            refNode = stack.pop();
-                            
-                            refNode = refNode.nextSibling;
-                        }
-                    }
-                    break;
-                case TraverseAction.STOP_BRANCH:
-                    if (refNode.nextSibling != null)
-                    {
-                        refNode = refNode.nextSibling;
-                    } else
-                    {
-                        refNode = null;
-                        while (stack.size() > 0 && refNode == null)
-                        {
-                            refNode = stack.pop();
-                            
-                            refNode = refNode.nextSibling;
-                        }
-                    }
-                    break;
-                case TraverseAction.STOP_TREE:
-                    return;
+                tree.snapshots = new Snapshots();
             }
+            return resolve(tree.snapshots);
         }
     }
     
-
+    
     /**
-     * Returns a string containing serialized form of the tree as XML
+     * Opens a snapshot of a tree, returning its epoch.  Changes made after the
+     * snapshot was opened are made in later epochs.
      * 
-     * @param tree The root node of the tree
-     * @return The XML representation of the tree
+     * @param snapshots The snapshots of the tree
+     * @return The epoch of the snapshot
      */
-    public static String toXML(AbstractTree tree)
+    static long openSnapshot(Snapshots snapshots)
     {
-        try
-        {
-            StringWriter writer = new StringWriter();
-            JAXBContext context = JAXBContext.newInstance(new Class[] {tree.getClass()});
-            Marshaller marshaller = context.createMarshaller();
-            marshaller.marshal(tree, writer);
-            return writer.toString();
-        } catch (JAXBException e)
+        synchronized (SNAPSHOTS)
         {
-            e.printStackTrace();
-            return null;
+            long epoch = EPOCH.getAndIncrement();
+            resolve(snapshots).open.add(Long.valueOf(epoch));
+            SNAPSHOTS.incrementAndGet();
+            return epoch;
         }
     }
     
-
+    
     /**
-     * Creates and loads a tree from the provided XML.
+     * Closes the snapshot opened in the epoch.  Once the last snapshot open on the
+     * tree is closed the preserved states are no longer read, they are discarded
+     * so that nodes removed from the tree are not kept reachable through them.
      * 
-     * @param xml The XML representing the Tree
-     * @param classes The JAXB Classes required for deserialization
-     * @return The tree
-     * @throws JAXBException
+     * @param snapshots The snapshots of the tree
+     * @param epoch The epoch of the snapshot
      */
-    public static <T extends AbstractTree> T loadFromXML(CharSequence xml, Class[] classes)
-    throws JAXBException
+    static void closeSnapshot(Snapshots snapshots, long epoch)
     {
-        JAXBContext context = JAXBContext.newInstance(classes);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
-        return (T) unmarshaller.unmarshal(new StringReader(xml.toString()));
+        synchronized (SNAPSHOTS)
+        {
+            snapshots = resolve(snapshots);
+            if (snapshots.open.remove(Long.valueOf(epoch)))
+            {
+                SNAPSHOTS.decrementAndGet();
+            }
+            discardHistory(snapshots);
+        }
     }
     
     
-    protected static <T extends Tree> T newInstance(Class<T> clazz)
+    /**
+     * Discards the preserved states if no snapshot is open on the tree, holding the
+     * lock of the snapshots.
+     */
+    private static void discardHistory(Snapshots snapshots)
     {
-        Constructor constructor;
-        try
-        {
-            constructor = clazz.getConstructor((Class[]) null);
-            return (T) constructor.newInstance((Object[]) null);
-        } catch (SecurityException e)
-        {
-            throw e;
-        } catch (NoSuchMethodException e)
-        {
-            throw new RuntimeException("Cannot find zero arg constructor for \"" + clazz.getName() + "\"!", e);
-        } catch (IllegalArgumentException e)
-        {
-            throw e;
-        } catch (InstantiationException e)
-        {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
-        } catch (IllegalAccessException e)
-        {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
-        } catch (InvocationTargetException e)
+        if (snapshots.open.isEmpty())
         {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
+            AbstractTree node;
+            while ((node = snapshots.preserved.poll()) != null)
+            {
+                node.extension.history = null;
+            }
         }
     }
     
     
-    protected static <T extends Tree, V> T newInstance(Class<T> clazz, V value)
+    private static Snapshots resolve(Snapshots snapshots)
     {
-        Constructor constructor;
-        try
+        while (snapshots.forward != null)
         {
-            constructor = clazz.getConstructor(new Class[] {value.getClass()});
-            return (T) constructor.newInstance((Object[]) new Object[] {value});
-        } catch (SecurityException e)
+            snapshots = snapshots.forward;
+        }
+        return snapshots;
+    }
+    
+    
+    /**
+     * Returns the snapshots open on the tree the node belongs to, or null if the
+     * tree has no open snapshot.  The tree is only looked up while some snapshot
+     * is open.
+     * 
+     * @param node The node
+     * @return The snapshots of the tree or null
+     */
+    private static Snapshots openSnapshotsOf(AbstractTree node)
+    {
+        if (node == null || SNAPSHOTS.get() == 0)
         {
-            throw e;
-        } catch (NoSuchMethodException e)
+            return null;
+        }
+        
+        TreeState tree = treeOf(node.parent != null ? lineageOf(node).root : node);
+        Snapshots snapshots = tree != null ? tree.snapshots : null;
+        if (snapshots == null)
         {
-            T node = newInstance(clazz);
-            node.setValue(value);
-            return node;
-        } catch (IllegalArgumentException e)
+            return null;
+        }
+        snapshots = resolve(snapshots);
+        return snapshots.open.isEmpty() ? null : snapshots;
+    }
+    
+    
+    /**
+     * Moves the snapshots open on the tree of a root node to the tree it now belongs
+     * to, joining the snapshots already open on that tree.
+     * 
+     * @param root The previous root node
+     * @param node The new root node
+     */
+    private static void moveSnapshots(AbstractTree root, AbstractTree node)
+    {
+        TreeState from = treeOf(root);
+        if (from == null || from.snapshots == null)
         {
-            throw e;
-        } catch (InstantiationException e)
+            return;
+        }
+        
+        synchronized (SNAPSHOTS)
         {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
-        } catch (IllegalAccessException e)
+            Snapshots snapshots = resolve(from.snapshots);
+            from.snapshots = null;
+            if (snapshots.open.isEmpty())
+            {
+                return;
+            }
+            
+            TreeState to = treeStateOf(node);
+            Snapshots target = to.snapshots != null ? resolve(to.snapshots) : null;
+            if (target == null || target.open.isEmpty())
+            {
+                to.snapshots = snapshots;
+            } else if (target != snapshots)
+            {
+                target.open.addAll(snapshots.open);
+                snapshots.forward = target;
+                transfer(snapshots);
+            }
+        }
+    }
+    
+    
+    /**
+     * Moves the nodes with preserved states to the snapshots the snapshots were
+     * moved into, holding the lock of the snapshots.
+     */
+    private static void transfer(Snapshots snapshots)
+    {
+        Snapshots target = resolve(snapshots);
+        AbstractTree node;
+        while ((node = snapshots.preserved.poll()) != null)
+        {
+            target.preserved.add(node);
+        }
+    }
+    
+    
+    /**
+     * Returns the links and value of the node as read by the snapshot opened in the
+     * epoch.  The current state is read unless the node was changed after the
+     * snapshot was opened, it is read again if the node changes while it is read.
+     * 
+     * @param node The node
+     * @param epoch The epoch of the snapshot
+     * @return The state of the node or null if the snapshot was closed
+     */
+    static NodeState stateOf(AbstractTree node, long epoch)
+    {
+        while (true)
+        {
+            long version = versionOf(node);
+            if (version > epoch)
+            {
+                for (NodeState state = node.extension.history; state != null; state = state.older)
+                {
+                    if (state.version <= epoch)
+                    {
+                        return state;
+                    }
+                }
+                return null;
+            }
+            
+            NodeState state = new NodeState(version, node, null);
+            VarHandle.acquireFence();
+            if (versionOf(node) == version)
+            {
+                return state;
+            }
+        }
+    }
+    
+    
+    /**
+     * Keeps the links and value of the node for the open snapshots reading them,
+     * before the node is changed.  The state is only kept if a snapshot was opened
+     * on its tree after the node was last changed, states no longer read by any
+     * open snapshot are discarded.  Nodes with preserved states are recorded so
+     * that the states are discarded once the last snapshot of the tree is closed.
+     * 
+     * @param node The node that is about to change
+     */
+    static void preserve(AbstractTree node)
+    {
+        preserve(openSnapshotsOf(node), node);
+    }
+    
+    
+    /**
+     * Keeps the links and value of the node for the snapshots open on its tree.
+     * 
+     * @param snapshots The snapshots open on the tree of the node, or null
+     * @param node The node that is about to change
+     */
+    private static void preserve(Snapshots snapshots, AbstractTree node)
+    {
+        if (node == null || snapshots == null)
+        {
+            return;
+        }
+        
+        long version = versionOf(node);
+        if (snapshots.open.ceiling(Long.valueOf(version)) == null)
+        {
+            return;
+        }
+        
+        Extension extension = extensionOf(node);
+        NodeState history = extension.history;
+        NodeState state = new NodeState(version, node, history);
+        Long oldest = snapshots.open.ceiling(Long.valueOf(0));
+        for (NodeState older = state; older != null; older = older.older)
+        {
+            if (oldest == null || older.version <= oldest.longValue())
+            {
+                older.older = null;
+                break;
+            }
+        }
+        
+        extension.history = state;
+        extension.version = EPOCH.get();
+        // the new version must be visible before the changes it guards
+        VarHandle.storeStoreFence();
+        
+        if (history == null)
+        {
+            snapshots.preserved.add(node);
+            if (snapshots.forward != null)
+            {
+                // The snapshots were moved while the node was recorded.
+                synchronized (SNAPSHOTS)
+                {
+                    transfer(snapshots);
+                }
+            }
+        }
+        if (resolve(snapshots).open.isEmpty())
+        {
+            // The last snapshot was closed while the state was kept, snapshots are
+            // only opened by the thread changing the tree so none can read it.
+            synchronized (SNAPSHOTS)
+            {
+                extension.history = null;
+                discardHistory(resolve(snapshots));
+            }
+        }
+    }
+    
+    
+    /**
+     * Preserves the nodes whose links are changed by adding the new node, which
+     * may belong to another tree.
+     */
+    private static void preserveLinks(Snapshots snapshots, AbstractTree refNode, AbstractTree newNode, int mode)
+    {
+        preserve(snapshots, refNode);
+        preserve(newNode);
+        preserve(snapshots, refNode.parent);
+        preserve(snapshots, refNode.child);
+        preserve(snapshots, refNode.nextSibling);
+        preserve(snapshots, refNode.previousSibling);
+        if (mode == LASTCHILD)
+        {
+            preserve(snapshots, getLastChild(refNode));
+        } else if (mode == LAST)
+        {
+            AbstractTree last = refNode;
+            if (refNode.parent != null)
+            {
+                last = getLastChild(refNode.parent);
+            } else
+            {
+                while (last.nextSibling != null)
+                {
+                    last = last.nextSibling;
+                }
+            }
+            preserve(snapshots, last);
+        }
+    }
+    
+    
+    /**
+     * Updates the counts and indexes of the parent after a node was linked beneath it.
+     * 
+     * @param node The node that was linked into the tree
+     * @param deferred True to invalidate the counts and indexes instead
+     */
+    private static void linked(AbstractTree node, boolean deferred)
+    {
+        AbstractTree parent = node.parent;
+        if (parent != null && deferred)
+        {
+            if (node.childIndexThreshold == 0)
+            {
+                node.childIndexThreshold = parent.childIndexThreshold;
+            }
+            deferred(parent, 1);
+        } else if (parent != null)
+        {
+            adjustCounts(parent, 1, node.descendantCount < 0 ? UNKNOWN_COUNT : 1 + node.descendantCount);
+            if (node.childIndexThreshold == 0)
+            {
+                node.childIndexThreshold = parent.childIndexThreshold;
+            }
+            if (childIndexOf(parent) != null)
+            {
+                indexChild(parent, node, node.getValue(), node.nextSibling == null);
+            }
+            ChildPositions positions = childPositionsOf(parent);
+            if (positions != null && !positions.insertAfter(node.previousSibling, node))
+            {
+                // The links were changed directly, rebuild on the next lookup.
+                setChildPositions(parent, null);
+            }
+            IntervalIndex.Label label = intervalOf(parent);
+            if (label != null && label.index.isValid())
+            {
+                label.index.linked(node);
+            }
+        } else if (intervalOf(node.child) != null)
+        {
+            // A parent was added above the indexed root.
+            intervalOf(node.child).index.invalidate();
+        }
+    }
+    
+
+    /**
+     * Updates the counts and indexes of the parent before a node is unlinked from it.
+     * 
+     * @param node The node that is being unlinked from the tree
+     * @param deferred True to invalidate the counts and indexes instead
+     */
+    private static void unlinking(AbstractTree node, boolean deferred)
+    {
+        AbstractTree parent = node.parent;
+        if (parent != null && deferred)
+        {
+            deferred(parent, -1);
+        } else if (parent != null)
+        {
+            adjustCounts(parent, -1, node.descendantCount < 0 ? UNKNOWN_COUNT : -1 - node.descendantCount);
+            if (childIndexOf(parent) != null)
+            {
+                unindexChild(parent, node, node.getValue());
+            }
+            ChildPositions positions = childPositionsOf(parent);
+            if (positions != null && !positions.remove(node))
+            {
+                setChildPositions(parent, null);
+            }
+            IntervalIndex.Label label = intervalOf(node);
+            if (label != null && label.index.isValid())
+            {
+                label.index.unlinking(node);
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns the root node of the tree of the node if the tree has listeners.  The
+     * trees are only looked up while some tree has listeners, so changes made while
+     * no tree is listened to do not look up their roots.
+     * 
+     * @param node The node
+     * @return The root node or null if the tree has no listeners
+     */
+    static AbstractTree observerOf(AbstractTree node)
+    {
+        if (OBSERVED.get() == 0)
+        {
+            return null;
+        }
+        
+        AbstractTree root = node.parent != null ? lineageOf(node).root : node;
+        return listenersOf(root) != null ? root : null;
+    }
+    
+    
+    /**
+     * Moves the listeners of a root node to the root node of the tree it now
+     * belongs to, joining the listeners already held by that root.
+     * 
+     * @param root The previous root node
+     * @param node The new root node
+     */
+    static void moveListeners(AbstractTree root, AbstractTree node)
+    {
+        TreeState from = treeOf(root);
+        if (from != null && from.listeners != null)
+        {
+            synchronized (node)
+            {
+                TreeState to = treeStateOf(node);
+                if (to.listeners == null)
+                {
+                    to.listeners = from.listeners;
+                } else
+                {
+                    to.listeners.addAll(from.listeners);
+                    OBSERVED.decrementAndGet();
+                }
+                from.listeners = null;
+            }
+        }
+    }
+    
+    
+    /**
+     * Notifies the listeners of the tree of the root node of the event.
+     * 
+     * @param root The root node of the tree
+     * @param event The change
+     */
+    static void fire(AbstractTree root, TreeEvent event)
+    {
+        List<TreeListener> listeners = listenersOf(root);
+        if (listeners != null)
+        {
+            for (TreeListener listener : listeners)
+            {
+                listener.treeChanged(event);
+            }
+        }
+    }
+    
+    
+    /**
+     * Invalidates the descendant counts and discards the child indexes of the
+     * parent of a node that was linked or unlinked with deferred maintenance.
+     * 
+     * @param parent The parent node
+     * @param children The change in the number of children
+     */
+    private static void deferred(AbstractTree parent, int children)
+    {
+        adjustCounts(parent, children, UNKNOWN_COUNT);
+        setChildIndex(parent, null);
+        setChildPositions(parent, null);
+    }
+    
+    
+    /**
+     * Invalidates the interval index labelling the node before its links are set
+     * directly.
+     * 
+     * @param node The node
+     */
+    private static void linksChanging(AbstractTree node)
+    {
+        IntervalIndex.Label label = intervalOf(node);
+        if (label != null)
+        {
+            label.index.invalidate();
+        }
+    }
+    
+    
+    static IntervalIndex.Label intervalOf(AbstractTree refNod)
+    {
+        Extension extension = refNod != null ? refNod.extension : null;
+        return extension != null ? extension.interval : null;
+    }
+    
+    
+    static void setInterval(AbstractTree refNod, IntervalIndex.Label interval)
+    {
+        if (interval != null || refNod.extension != null)
+        {
+            extensionOf(refNod).interval = interval;
+        }
+    }
+    
+    
+    /**
+     * Returns the extension of the node, creating it if the node has none.  Readers
+     * building indexes may create the extension concurrently, only one is kept.
+     * 
+     * @param refNod The node
+     * @return The extension
+     */
+    private static Extension extensionOf(AbstractTree refNod)
+    {
+        Extension extension = refNod.extension;
+        if (extension == null)
+        {
+            extension = new Extension();
+            if (!EXTENSION.compareAndSet(refNod, null, extension))
+            {
+                extension = refNod.extension;
+            }
+        }
+        return extension;
+    }
+    
+    
+    private static ChildIndex childIndexOf(AbstractTree refNod)
+    {
+        Extension extension = refNod.extension;
+        return extension != null ? extension.childIndex : null;
+    }
+    
+    
+    private static void setChildIndex(AbstractTree refNod, ChildIndex index)
+    {
+        if (index != null || refNod.extension != null)
+        {
+            extensionOf(refNod).childIndex = index;
+        }
+    }
+    
+    
+    private static ChildPositions childPositionsOf(AbstractTree refNod)
+    {
+        Extension extension = refNod.extension;
+        return extension != null ? extension.childPositions : null;
+    }
+    
+    
+    private static void setChildPositions(AbstractTree refNod, ChildPositions positions)
+    {
+        if (positions != null || refNod.extension != null)
+        {
+            extensionOf(refNod).childPositions = positions;
+        }
+    }
+    
+    
+    private static long versionOf(AbstractTree refNod)
+    {
+        Extension extension = refNod.extension;
+        return extension != null ? extension.version : 0;
+    }
+    
+    
+    /**
+     * Returns the state of the tree of the root node, or null if it has none.
+     */
+    private static TreeState treeOf(AbstractTree root)
+    {
+        Extension extension = root.extension;
+        return extension != null ? extension.tree : null;
+    }
+    
+    
+    /**
+     * Returns the state of the tree of the root node, creating it if it has none.
+     */
+    private static TreeState treeStateOf(AbstractTree root)
+    {
+        Extension extension = extensionOf(root);
+        TreeState tree = extension.tree;
+        if (tree == null)
+        {
+            tree = new TreeState();
+            if (!TREE_STATE.compareAndSet(extension, null, tree))
+            {
+                tree = extension.tree;
+            }
+        }
+        return tree;
+    }
+    
+    
+    private static List<TreeListener> listenersOf(AbstractTree root)
+    {
+        TreeState tree = treeOf(root);
+        return tree != null ? tree.listeners : null;
+    }
+    
+    
+    private static long lineageEpochOf(AbstractTree root)
+    {
+        TreeState tree = treeOf(root);
+        return tree != null ? tree.lineageEpoch : 0;
+    }
+    
+    
+    static AbstractTree previousSiblingOf(AbstractTree refNod)
+    {
+        return refNod.previousSibling;
+    }
+    
+
+    /**
+     * Adds a child to the parent's child index.  If the value is already indexed
+     * and the child was not appended it may now be the first holder of the value,
+     * in which case the index is discarded and rebuilt on the next lookup.
+     * 
+     * @param parent The parent node
+     * @param node The child node
+     * @param value The value of the child node
+     * @param appended True if the child is the last child of the parent
+     */
+    private static void indexChild(AbstractTree parent, AbstractTree node, Object value, boolean appended)
+    {
+        if (value != null)
+        {
+            ChildIndex index = childIndexOf(parent);
+            if (index.get(value) == null)
+            {
+                index.put(value, node);
+            } else if (appended)
+            {
+                index.duplicate(value);
+            } else
+            {
+                setChildIndex(parent, null);
+            }
+        }
+    }
+    
+
+    /**
+     * Removes a child from the parent's child index.  If the child is the first
+     * holder of a duplicated value the following siblings are searched for the next
+     * holder, which takes its place in the index.
+     * 
+     * @param parent The parent node
+     * @param node The child node
+     * @param value The value of the child node
+     */
+    private static void unindexChild(AbstractTree parent, AbstractTree node, Object value)
+    {
+        if (value != null)
+        {
+            ChildIndex index = childIndexOf(parent);
+            AbstractTree indexed = index.get(value);
+            if (indexed != node)
+            {
+                if (indexed != null)
+                {
+                    index.unduplicate(value);
+                }
+            } else if (!index.unduplicate(value))
+            {
+                index.remove(value);
+            } else
+            {
+                AbstractTree next = node.nextSibling;
+                while (next != null && !value.equals(next.getValue()))
+                {
+                    next = next.nextSibling;
+                }
+                if (next != null)
+                {
+                    index.put(value, next);
+                } else
+                {
+                    // The links were changed directly, rebuild on the next lookup.
+                    setChildIndex(parent, null);
+                }
+            }
+        }
+    }
+    
+
+    /**
+     * Returns the child index of the specified node, building it if the node has
+     * reached its child index threshold.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The child index or null if the node's children are not indexed
+     */
+    private static ChildIndex getChildIndex(AbstractTree refNod)
+    {
+        ChildIndex index = childIndexOf(refNod);
+        if (index == null && refNod.childIndexThreshold > 0 && refNod.childCount >= refNod.childIndexThreshold)
+        {
+            index = new ChildIndex();
+            for (AbstractTree node = refNod.child; node != null; node = node.nextSibling)
+            {
+                Object value = node.getValue();
+                if (value != null)
+                {
+                    if (index.get(value) == null)
+                    {
+                        index.put(value, node);
+                    } else
+                    {
+                        index.duplicate(value);
+                    }
+                }
+            }
+            setChildIndex(refNod, index);
+        }
+        return index;
+    }
+    
+
+    /**
+     * Returns the positional index of the children of the specified node, building
+     * it once the node has enough children for positional access to benefit.  The
+     * index is maintained as children are added and removed.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The positional index or null if the node has too few children
+     */
+    private static ChildPositions getChildPositions(AbstractTree refNod)
+    {
+        ChildPositions positions = childPositionsOf(refNod);
+        if (positions == null && refNod.childCount >= POSITION_THRESHOLD)
+        {
+            positions = new ChildPositions(refNod);
+            setChildPositions(refNod, positions);
+        }
+        return positions;
+    }
+    
+
+    /**
+     * Returns the first child of the node holding the value, using the child index
+     * if it has been built but never building it.  Used by readers that must not
+     * write to the tree.
+     * 
+     * @param refNod The reference node, point of reference
+     * @param value The value
+     * @return The child or null
+     */
+    static AbstractTree peekChild(AbstractTree refNod, Object value)
+    {
+        ChildIndex index = childIndexOf(refNod);
+        if (index != null)
+        {
+            return index.get(value);
+        }
+        
+        for (AbstractTree node = refNod.child; node != null; node = node.nextSibling)
+        {
+            if (value.equals(node.getValue()))
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+
+    /**
+     * Returns the descendant count of the node without recounting, -1 if the count
+     * has been invalidated.  Used by readers that must not write to the tree.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The descendant count or -1
+     */
+    static int peekDescendantCount(AbstractTree refNod)
+    {
+        return refNod.parent == null ? (int) DESCENDANT_COUNT.getVolatile(refNod) : refNod.descendantCount;
+    }
+    
+
+    /**
+     * Builds the lazily built child index of the node if it has reached its
+     * threshold, so that later lookups do not write to the tree.
+     * 
+     * @param refNod The reference node, point of reference
+     */
+    static void prepareChildIndex(AbstractTree refNod)
+    {
+        getChildIndex(refNod);
+    }
+    
+
+    /**
+     * Adjusts the child count of the parent and the descendant counts of the parent
+     * and its ancestors.  Descendant counts are updated eagerly for a bounded number
+     * of ancestors, beyond that, or when the change is unknown, the counts of the
+     * ancestors are invalidated and recounted on demand.  A node with an invalid
+     * count always has ancestors with invalid counts.
+     * 
+     * @param parent The parent of the node that was added or removed
+     * @param children The change in the number of children
+     * @param descendants The change in the number of descendants or <code>UNKNOWN_COUNT</code>
+     */
+    private static void adjustCounts(AbstractTree parent, int children, int descendants)
+    {
+        if (parent != null)
+        {
+            parent.childCount += children;
+            
+            AbstractTree node = parent;
+            for (int depth = 0; node != null && node.descendantCount >= 0; depth++)
+            {
+                if (descendants == UNKNOWN_COUNT || depth == MAX_COUNT_DEPTH)
+                {
+                    while (node != null && node.descendantCount >= 0)
+                    {
+                        if (node.parent == null)
+                        {
+                            DESCENDANT_COUNT.setVolatile(node, -1);
+                        } else
+                        {
+                            node.descendantCount = -1;
+                        }
+                        node = node.parent;
+                    }
+                } else if (node.parent == null)
+                {
+                    // The root is shared by writers in disjoint subtrees, see ConcurrentTree.
+                    int count;
+                    do
+                    {
+                        count = (int) DESCENDANT_COUNT.getVolatile(node);
+                    } while (count >= 0 && !DESCENDANT_COUNT.compareAndSet(node, count, count + descendants));
+                    node = null;
+                } else
+                {
+                    node.descendantCount += descendants;
+                    node = node.parent;
+                }
+            }
+        }
+    }
+    
+
+    /**
+     * Returns the number of descendants of the specified node, recounting the
+     * invalidated counts beneath it.  Only the nodes with invalid counts are visited,
+     * the walk is iterative so the depth of the tree is not limited by the stack.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The number of descendants of the node
+     */
+    private static int getDescendantCount(AbstractTree refNod)
+    {
+        AbstractTree node = refNod;
+        AbstractTree next = node.descendantCount < 0 ? node.child : null;
+        while (node.descendantCount < 0)
+        {
+            while (next != null && next.descendantCount >= 0)
+            {
+                next = next.nextSibling;
+            }
+            
+            if (next != null)
+            {
+                node = next;
+                next = node.child;
+            } else
+            {
+                int count = 0;
+                for (AbstractTree child = node.child; child != null; child = child.nextSibling)
+                {
+                    count += 1 + child.descendantCount;
+                }
+                node.descendantCount = count;
+                
+                if (node != refNod)
+                {
+                    next = node.nextSibling;
+                    node = node.parent;
+                }
+            }
+        }
+        return refNod.descendantCount;
+    }
+    
+
+    /**
+     * Returns the last child of the specified node.  The tail of the child list
+     * is cached, if the cached tail was invalidated by direct manipulation of the
+     * links it is located by walking the siblings.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The last child of the node or null
+     */
+    protected static AbstractTree getLastChild(AbstractTree refNod)
+    {
+        if (refNod.child == null)
+            return null;
+        
+        AbstractTree last = refNod.lastChild;
+        if (last == null || last.nextSibling != null || last.parent != refNod)
+        {
+            last = last != null && last.parent == refNod ? last : refNod.child;
+            while (last.nextSibling != null)
+            {
+                last = last.nextSibling;
+            }
+            refNod.lastChild = last;
+        }
+        return last;
+    }
+    
+
+    /**
+     * Returns the root tree node for the specified node.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The trees root node
+     */
+    public static Tree getRoot(AbstractTree refNod)
+    {
+        if (refNod == null)
+            return null;
+        if (!refNod.inheritsLinks())
+            return refNod.getRoot();
+        
+        return lineageOf(refNod).root;
+    }
+    
+    
+    /**
+     * Returns the lineage of the node, walking the parents up to the first node
+     * with a valid lineage and caching the lineages of the nodes walked.  Lineages
+     * are immutable so that readers sharing the tree may cache them concurrently.
+     * 
+     * @param refNod The reference node, point of reference
+     * @return The root and depth of the node
+     */
+    private static Lineage lineageOf(AbstractTree refNod)
+    {
+        Lineage lineage = refNod.lineage;
+        if (isValid(lineage))
+        {
+            return lineage;
+        }
+        
+        int steps = 0;
+        AbstractTree node = refNod;
+        Lineage base = null;
+        while (node.parent != null)
+        {
+            node = node.parent;
+            steps++;
+            base = node.lineage;
+            if (isValid(base))
+            {
+                break;
+            }
+            base = null;
+        }
+        
+        AbstractTree top = node;
+        if (base == null)
+        {
+            base = new Lineage(top, 0, lineageEpochOf(top));
+            top.lineage = base;
+        }
+        for (node = refNod; node != top; node = node.parent, steps--)
+        {
+            node.lineage = new Lineage(base.root, base.depth + steps, base.epoch);
+        }
+        return refNod.lineage;
+    }
+    
+    
+    private static boolean isValid(Lineage lineage)
+    {
+        return lineage != null && lineage.epoch == lineageEpochOf(lineage.root);
+    }
+    
+    
+    /**
+     * Advances the lineage epoch of the tree if the node has a valid lineage, called
+     * before the node is moved so that the cached roots and depths beneath it are
+     * recomputed.  Writers in disjoint subtrees may move nodes concurrently, so the
+     * epoch is advanced atomically.
+     * 
+     * @param refNod The node being moved
+     */
+    private static void moving(AbstractTree refNod)
+    {
+        Lineage lineage = refNod.lineage;
+        if (isValid(lineage))
+        {
+            LINEAGE_EPOCH.getAndAdd(treeStateOf(lineage.root), 1L);
+        }
+    }
+    
+    
+    /**
+     * Returns true if the links of this node are held by the AbstractTree.  The
+     * static helpers navigate and change nodes of subclasses that hold their own
+     * links through the overridden instance methods instead.
+     * 
+     * @return True if the links are held by the AbstractTree
+     */
+    boolean inheritsLinks()
+    {
+        return true;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point.  The traverse action is executed for
+     * each node encountered.
+     * 
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(TraverseAction action)
+    {
+        AbstractTree.traverse(this, action);
+    }
+    
+
+    /**
+     * Traverses the tree using the reference node as a starting point.  The walk
+     * follows the parent links back up the tree, counting the level, so no stack
+     * is allocated and the depth of the tree is not limited.
+     * 
+     * @param refNode The reference node, starting point
+     * @param action The action to perform for each node, flow control
+     */
+    public static void traverse(AbstractTree refNode, TraverseAction action)
+    {
+        if (refNode != null && !refNode.inheritsLinks())
+        {
+            refNode.traverse(action);
+            return;
+        }
+        
+        int level = 1;
+        
+        while (refNode != null)
+        {
+            int result = action.action(refNode, level);
+            
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            } else if (result == TraverseAction.CONTINUE && refNode.child != null)
+            {
+                refNode = refNode.child;
+                level++;
+            } else
+            {
+                // Climb until a node with a following sibling is found.
+                while (refNode.nextSibling == null && level > 1)
+                {
+                    refNode = refNode.parent;
+                    level--;
+                }
+                refNode = refNode.nextSibling;
+            }
+        }
+    }
+    
+
+    /**
+     * Traverses the tree using this node as a starting point, executing the
+     * traverse action in parallel on the common ForkJoinPool.
+     * 
+     * @param action The action to perform for each node, flow control
+     * @see #parallelTraverse(AbstractTree, TraverseAction, ForkJoinPool, int)
+     */
+    public void parallelTraverse(TraverseAction action)
+    {
+        AbstractTree.parallelTraverse(this, action, ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+    }
+    
+
+    /**
+     * Traverses the tree using the reference node as a starting point, executing
+     * the traverse action in parallel on the common ForkJoinPool.
+     * 
+     * @param refNode The reference node, starting point
+     * @param action The action to perform for each node, flow control
+     * @see #parallelTraverse(AbstractTree, TraverseAction, ForkJoinPool, int)
+     */
+    public static void parallelTraverse(AbstractTree refNode, TraverseAction action)
+    {
+        parallelTraverse(refNode, action, ForkJoinPool.commonPool(), PARALLEL_THRESHOLD);
+    }
+    
+
+    /**
+     * Traverses the tree using the reference node as a starting point, executing
+     * the traverse action in parallel.  The tree is split into tasks at subtree
+     * boundaries, subtrees holding no more than the threshold number of nodes are
+     * traversed sequentially by a single task.
+     * <p>
+     * The action is called for a node before any of its descendants, with the
+     * same level as <code>traverse</code>, but the order of the calls is otherwise
+     * undefined and the action must be thread safe.  <code>STOP_BRANCH</code>
+     * skips the descendants of the node, <code>STOP_TREE</code> cancels all tasks,
+     * actions already running in other tasks complete.  The tree must not be
+     * modified during the traversal.
+     * 
+     * @param refNode The reference node, starting point
+     * @param action The action to perform for each node, flow control
+     * @param pool The pool executing the tasks
+     * @param threshold The largest number of nodes traversed by a single task
+     */
+    public static void parallelTraverse(AbstractTree refNode, TraverseAction action, ForkJoinPool pool, int threshold)
+    {
+        if (refNode == null)
+        {
+            return;
+        } else if (!refNode.inheritsLinks())
+        {
+            refNode.parallelTraverse(action);
+            return;
+        }
+        
+        // Validate the counts of every subtree first, so tasks only read them.
+        for (AbstractTree node = refNode; node != null; node = node.nextSibling)
+        {
+            getDescendantCount(node);
+        }
+        
+        pool.invoke(new TraverseTask(action, new AtomicBoolean(), Math.max(1, threshold), refNode, -1, 1));
+    }
+    
+
+    /**
+     * A parallel traversal task, traverses a run of sibling subtrees sequentially
+     * or, for a single large subtree, calls the action for its root and splits
+     * its children into new tasks.
+     */
+    private static class TraverseTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 201610161200L;
+        
+        private final TraverseAction action;
+        
+        private final AtomicBoolean stopped;
+        
+        private final int threshold;
+        
+        private final AbstractTree first;
+        
+        private final int count;
+        
+        private final int level;
+        
+        
+        /**
+         * @param first The first sibling
+         * @param count The number of siblings, -1 for the first sibling and all that follow it
+         * @param level The level of the siblings
+         */
+        private TraverseTask(TraverseAction action, AtomicBoolean stopped, int threshold, AbstractTree first, int count, int level)
+        {
+            this.action = action;
+            this.stopped = stopped;
+            this.threshold = threshold;
+            this.first = first;
+            this.count = count;
+            this.level = level;
+        }
+        
+        
+        @Override
+        protected void compute()
+        {
+            List<TraverseTask> forked = new ArrayList<TraverseTask>();
+            AbstractTree node = first;
+            int count = this.count;
+            int level = this.level;
+            
+            // The last task of each split is run by this task, so long chains of
+            // large subtrees are followed iteratively rather than recursively.
+            while (node != null && !stopped.get())
+            {
+                List<TraverseTask> tasks;
+                if (count < 0)
+                {
+                    tasks = split(node, level);
+                } else if (count == 1 && node.descendantCount >= threshold)
+                {
+                    int result = action.action(node, level);
+                    if (result == TraverseAction.STOP_TREE)
+                    {
+                        stopped.set(true);
+                        break;
+                    } else if (result != TraverseAction.CONTINUE || node.child == null)
+                    {
+                        break;
+                    }
+                    tasks = split(node.child, ++level);
+                } else
+                {
+                    for (int index = 0; index < count && !stopped.get(); index++)
+                    {
+                        walk(node, level);
+                        node = node.nextSibling;
+                    }
+                    break;
+                }
+                
+                TraverseTask last = tasks.remove(tasks.size() - 1);
+                for (TraverseTask task : tasks)
+                {
+                    task.fork();
+                    forked.add(task);
+                }
+                node = last.first;
+                count = last.count;
+                level = last.level;
+            }
+            
+            for (int index = forked.size() - 1; index >= 0; index--)
+            {
+                forked.get(index).join();
+            }
+        }
+        
+        
+        /**
+         * Divides the siblings starting with the node into tasks, large subtrees get
+         * a task of their own and runs of small subtrees are grouped.
+         */
+        private List<TraverseTask> split(AbstractTree node, int level)
+        {
+            List<TraverseTask> tasks = new ArrayList<TraverseTask>();
+            AbstractTree run = null;
+            int runCount = 0;
+            int runSize = 0;
+            
+            for (; node != null; node = node.nextSibling)
+            {
+                int size = 1 + node.descendantCount;
+                if (run != null && runSize + size > threshold)
+                {
+                    tasks.add(new TraverseTask(action, stopped, threshold, run, runCount, level));
+                    run = null;
+                }
+                if (run == null)
+                {
+                    run = node;
+                    runCount = 0;
+                    runSize = 0;
+                }
+                runCount++;
+                runSize += size;
+            }
+            if (run != null)
+            {
+                tasks.add(new TraverseTask(action, stopped, threshold, run, runCount, level));
+            }
+            return tasks;
+        }
+        
+        
+        /**
+         * Traverses the subtree sequentially, following the parent links.
+         */
+        private void walk(AbstractTree root, int depth)
+        {
+            AbstractTree node = root;
+            
+            while (!stopped.get())
+            {
+                int result = action.action(node, depth);
+                if (result == TraverseAction.STOP_TREE)
+                {
+                    stopped.set(true);
+                    return;
+                } else if (result == TraverseAction.CONTINUE && node.child != null)
+                {
+                    node = node.child;
+                    depth++;
+                    continue;
+                }
+                
+                while (node != root && node.nextSibling == null)
+                {
+                    node = node.parent;
+                    depth--;
+                }
+                if (node == root)
+                {
+                    return;
+                }
+                node = node.nextSibling;
+            }
+        }
+    }
+    
+
+    /**
+     * Returns a string containing serialized form of the tree as XML
+     * 
+     * @param tree The root node of the tree
+     * @return The XML representation of the tree
+     */
+    public static String toXML(AbstractTree tree)
+    {
+        try
+        {
+            StringWriter writer = new StringWriter();
+            toXML(tree, writer);
+            return writer.toString();
+        } catch (JAXBException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+
+    /**
+     * Writes the serialized form of the tree as XML to the writer.
+     * 
+     * @param tree The root node of the tree
+     * @param writer The writer the XML is written to
+     * @throws JAXBException
+     */
+    public static void toXML(AbstractTree tree, Writer writer)
+    throws JAXBException
+    {
+        JAXBContextPool pool = JAXBContextPool.getPool(tree.getClass());
+        Marshaller marshaller = pool.acquireMarshaller();
+        try
+        {
+            marshaller.marshal(tree, writer);
+        } finally
+        {
+            pool.releaseMarshaller(marshaller);
+        }
+    }
+    
+
+    /**
+     * Writes the serialized form of the tree as XML to the output stream.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output stream the XML is written to
+     * @throws JAXBException
+     */
+    public static void toXML(AbstractTree tree, OutputStream out)
+    throws JAXBException
+    {
+        JAXBContextPool pool = JAXBContextPool.getPool(tree.getClass());
+        Marshaller marshaller = pool.acquireMarshaller();
+        try
+        {
+            marshaller.marshal(tree, out);
+        } finally
+        {
+            pool.releaseMarshaller(marshaller);
+        }
+    }
+    
+
+    /**
+     * Creates and loads a tree from the provided XML.
+     * 
+     * @param xml The XML representing the Tree
+     * @param classes The JAXB Classes required for deserialization
+     * @return The tree
+     * @throws JAXBException
+     */
+    public static <T extends AbstractTree> T loadFromXML(CharSequence xml, Class[] classes)
+    throws JAXBException
+    {
+        return (T) loadFromXML(new StringReader(xml.toString()), classes);
+    }
+    
+
+    /**
+     * Creates and loads a tree from the XML read from the reader.
+     * 
+     * @param reader The reader the XML representing the Tree is read from
+     * @param classes The JAXB Classes required for deserialization
+     * @return The tree
+     * @throws JAXBException
+     */
+    public static <T extends AbstractTree> T loadFromXML(Reader reader, Class[] classes)
+    throws JAXBException
+    {
+        JAXBContextPool pool = JAXBContextPool.getPool(classes);
+        Unmarshaller unmarshaller = pool.acquireUnmarshaller();
+        try
+        {
+            return (T) unmarshaller.unmarshal(reader);
+        } finally
+        {
+            pool.releaseUnmarshaller(unmarshaller);
+        }
+    }
+    
+
+    /**
+     * Creates and loads a tree from the XML read from the input stream.
+     * 
+     * @param in The input stream the XML representing the Tree is read from
+     * @param classes The JAXB Classes required for deserialization
+     * @return The tree
+     * @throws JAXBException
+     */
+    public static <T extends AbstractTree> T loadFromXML(InputStream in, Class[] classes)
+    throws JAXBException
+    {
+        JAXBContextPool pool = JAXBContextPool.getPool(classes);
+        Unmarshaller unmarshaller = pool.acquireUnmarshaller();
+        try
+        {
+            return (T) unmarshaller.unmarshal(in);
+        } finally
+        {
+            pool.releaseUnmarshaller(unmarshaller);
+        }
+    }
+    
+    
+    /**
+     * Streams the XML form of the tree to the output stream, without building the
+     * document in memory.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output stream the XML is written to
+     * @throws XMLStreamException
+     * @see TreeXMLWriter
+     */
+    public static void writeXML(Tree tree, OutputStream out)
+    throws XMLStreamException
+    {
+        TreeXMLWriter.write(tree, out);
+    }
+    
+
+    /**
+     * Streams a tree from the XML read from the input stream, linking the nodes
+     * as they are read.
+     * 
+     * @param in The input stream the XML representing the Tree is read from
+     * @param clazz The class that represents the type of Tree
+     * @return The tree
+     * @throws XMLStreamException
+     * @see TreeXMLReader
+     */
+    public static <T extends AbstractTree> T readXML(InputStream in, Class<T> clazz)
+    throws XMLStreamException
+    {
+        return (T) new TreeXMLReader(getNodeFactory(clazz)).read(in);
+    }
+    
+    
+    /**
+     * Writes the tree to the output stream in the compact binary Tree format.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output stream the tree is written to
+     * @param codec The codec used to encode the values
+     * @throws IOException
+     * @see TreeBinaryWriter
+     */
+    public static void writeBinary(Tree tree, OutputStream out, ValueCodec codec)
+    throws IOException
+    {
+        new TreeBinaryWriter(codec).write(tree, out);
+    }
+    
+
+    /**
+     * Reads a tree in the compact binary Tree format from the input stream.
+     * 
+     * @param in The input stream the tree is read from
+     * @param clazz The class that represents the type of Tree
+     * @param codec The codec used to decode the values
+     * @return The tree
+     * @throws IOException
+     * @see TreeBinaryReader
+     */
+    public static <T extends AbstractTree> T readBinary(InputStream in, Class<T> clazz, ValueCodec codec)
+    throws IOException
+    {
+        return (T) new TreeBinaryReader(getNodeFactory(clazz), codec).read(in);
+    }
+    
+    
+    protected static <T extends Tree> T newInstance(Class<T> clazz)
+    {
+        return (T) getNodeFactory((Class<? extends AbstractTree>) clazz).newNode(null);
+    }
+    
+    
+    protected static <T extends Tree, V> T newInstance(Class<T> clazz, V value)
+    {
+        return (T) getNodeFactory((Class<? extends AbstractTree>) clazz).newNode(value);
+    }
+    
+    
+    /**
+     * Returns the factory used to create the nodes of the specified Tree class.
+     * Unless a factory was registered the nodes are created using the public
+     * constructors of the class.
+     * 
+     * @param clazz The class that represents the type of Tree
+     * @return The node factory for the Tree class
+     */
+    public static NodeFactory getNodeFactory(Class<? extends AbstractTree> clazz)
+    {
+        NodeFactory factory = NODE_FACTORIES.get(clazz);
+        if (factory == null)
+        {
+            factory = new ReflectiveNodeFactory(clazz);
+            NodeFactory existing = NODE_FACTORIES.putIfAbsent(clazz, factory);
+            if (existing != null)
+            {
+                factory = existing;
+            }
+        }
+        return factory;
+    }
+    
+    
+    /**
+     * Registers the factory used to create the nodes of the specified Tree class
+     * when values are added to the Tree.
+     * 
+     * @param clazz The class that represents the type of Tree
+     * @param factory The node factory, null restores the default factory
+     */
+    public static void setNodeFactory(Class<? extends AbstractTree> clazz, NodeFactory factory)
+    {
+        if (factory != null)
+        {
+            NODE_FACTORIES.put(clazz, factory);
+        } else
+        {
+            NODE_FACTORIES.remove(clazz);
+        }
+    }
+    
+    
+    /**
+     * Constructs a tree holding the paths, or merges them into an existing tree.
+     * Each path holds the values of the nodes from the top level of the tree, the
+     * paths are loaded in one pass by a PathLoader.  The child index threshold of
+     * an existing tree is restored once the paths are loaded, nodes added to it keep
+     * the threshold of the load.
+     * 
+     * @param <T> The tree type
+     * @param <V> The value type
+     * @param clazz The class that represents the type of Tree
+     * @param root The root node of a pre-existing tree structure or null
+     * @param paths The paths
+     * @return The root node of the tree
+     * @see PathLoader
+     */
+    public static <T extends AbstractTree, V> T createPaths(Class<T> clazz, T root, Iterable<? extends List<V>> paths)
+    {
+        PathLoader loader = new PathLoader(clazz, root);
+        try
         {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
-        } catch (InvocationTargetException e)
+            return (T) loader.addAll(paths);
+        } finally
         {
-            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
+            loader.finish();
         }
     }
     
@@ -989,7 +3610,10 @@ public abstract class AbstractTree<T extends AbstractTree<T, V>, V> implements S
     {
         try
         {
-            return (T) super.clone();
+            AbstractTree clone = (AbstractTree) super.clone();
+            clone.lineage = null;
+            clone.extension = null;
+            return (T) clone;
         } catch (CloneNotSupportedException e)
         {
             return null;
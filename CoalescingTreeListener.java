@@ -0,0 +1,105 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The CoalescingTreeListener notifies a listener of the changes made to a tree
+ * asynchronously.  The thread changing the tree only queues the events, the
+ * executor notifies the listener of the events queued since it was last run,
+ * reporting the changes within the same subtree as a single event.  The changes
+ * within a scope beneath the scope of another queued change are reported with
+ * the topmost of those scopes.  A subtree with one change is reported by its
+ * event, a subtree with several changes by a <code>SUBTREE_CHANGED</code> event
+ * for the scope node counting the changes.
+ * <p>
+ * As the tree may have changed again by the time the listener is notified,
+ * listeners should read the tree through the events rather than rely on it
+ * holding the state described by an event.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ * @see TreeEvent#getScope()
+ */
+public class CoalescingTreeListener<T extends Tree<T, V>, V> implements TreeListener<T, V>
+{
+    private final TreeListener<T, V> listener;
+    
+    private final Executor executor;
+    
+    private final ConcurrentLinkedQueue<TreeEvent<T, V>> queue = new ConcurrentLinkedQueue<TreeEvent<T, V>>();
+    
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    
+    private final Runnable drain = new Runnable()
+    {
+        public void run()
+        {
+            drain();
+        }
+    };
+    
+    
+    /**
+     * Creates a CoalescingTreeListener notifying the listener using the executor.
+     * 
+     * @param listener The listener notified of the coalesced events
+     * @param executor The executor that notifies the listener
+     */
+    public CoalescingTreeListener(TreeListener<T, V> listener, Executor executor)
+    {
+        this.listener = listener;
+        this.executor = executor;
+    }
+    
+    
+    /**
+     * Queues the event, scheduling the notification of the listener unless it is
+     * already scheduled.
+     * 
+     * @param event The change
+     */
+    @Override
+    public void treeChanged(TreeEvent<T, V> event)
+    {
+        queue.offer(event);
+        if (scheduled.compareAndSet(false, true))
+        {
+            executor.execute(drain);
+        }
+    }
+    
+    
+    /**
+     * Notifies the listener of the queued events, rescheduling itself if events
+     * were queued while it was notifying the listener.
+     */
+    private void drain()
+    {
+        try
+        {
+            List<TreeEvent<T, V>> events = new ArrayList<TreeEvent<T, V>>();
+            for (TreeEvent<T, V> event = queue.poll(); event != null; event = queue.poll())
+            {
+                events.add(event);
+            }
+            
+            for (TreeEvent<T, V> event : TreeEvent.coalesce(events))
+            {
+                listener.treeChanged(event);
+            }
+        } finally
+        {
+            scheduled.set(false);
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+            {
+                executor.execute(drain);
+            }
+        }
+    }
+}
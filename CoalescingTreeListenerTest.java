@@ -0,0 +1,87 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Changes an observed LinkedTree while the executor of a CoalescingTreeListener
+ * is held, then checks that the changes within nested scopes are reported by one
+ * event for the topmost scope.
+ *
+ * @author Steve Posick
+ */
+public class CoalescingTreeListenerTest
+{
+    public CoalescingTreeListenerTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        LinkedTree<String> root = new LinkedTree<String>("Root");
+        LinkedTree<String> a = root.addChild("A");
+        LinkedTree<String> b = root.addChild("B");
+        LinkedTree<String> a1 = a.addChild("A1");
+        
+        final List<TreeEvent<LinkedTree<String>, String>> events = Collections.synchronizedList(new ArrayList<TreeEvent<LinkedTree<String>, String>>());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Object gate = new Object();
+        root.addTreeListener(new CoalescingTreeListener<LinkedTree<String>, String>(new TreeListener<LinkedTree<String>, String>()
+        {
+            public void treeChanged(TreeEvent<LinkedTree<String>, String> event)
+            {
+                events.add(event);
+            }
+        }, executor));
+        
+        synchronized (gate)
+        {
+            // hold the executor until every change is queued
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    synchronized (gate)
+                    {
+                    }
+                }
+            });
+            a1.addChild("A1a");
+            a1.setValue("A1'");
+            a.addChild("A2");
+            b.setValue("B'");
+            a1.getFirstChild().addChild("A1a1");
+        }
+        executor.submit(new Runnable()
+        {
+            public void run()
+            {
+            }
+        }).get();
+        executor.shutdown();
+        
+        check(events.size() == 2, "drained " + events.size() + " events " + events);
+        check(events.get(0).getType() == TreeEvent.SUBTREE_CHANGED && events.get(0).getScope() == a && events.get(0).getCount() == 4, "nested scopes " + events.get(0));
+        check(events.get(1).getType() == TreeEvent.VALUE_CHANGED && events.get(1).getScope() == b, "single scope " + events.get(1));
+        
+        System.out.println("CoalescingTreeListenerTest passed");
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
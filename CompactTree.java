@@ -0,0 +1,533 @@
+package net.posick.tree;
+
+import java.util.Arrays;
+
+/**
+ * The CompactTree stores the structure of a Tree in parallel <code>int</code>
+ * arrays and the values in an <code>Object</code> array, rather than in linked
+ * node objects.  Each node costs five array slots plus its value reference,
+ * removing the object header and the four references of a linked node, and the
+ * arrays keep related nodes close together in memory.
+ * <p>
+ * Instances are lightweight views of a node, created on demand as the Tree is
+ * navigated and equal when they view the same node.  New nodes are allocated
+ * within the storage by <code>add(V, int)</code>, nodes added with
+ * <code>add(T, int)</code> must belong to the same storage.  Removed nodes are
+ * detached but keep their slots, so they can be added back to the Tree.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings("unchecked")
+public class CompactTree<V> extends IndexedTree<CompactTree<V>, V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    private final Storage storage;
+    
+    
+    /**
+     * Creates a Tree holding a single node with no value.
+     */
+    public CompactTree()
+    {
+        this((V) null, DEFAULT_CAPACITY);
+    }
+    
+    
+    /**
+     * Creates a Tree holding a single node.
+     * 
+     * @param value The value of the node
+     */
+    public CompactTree(V value)
+    {
+        this(value, DEFAULT_CAPACITY);
+    }
+    
+    
+    /**
+     * Creates a Tree holding a single node, with storage for the specified number
+     * of nodes.
+     * 
+     * @param value The value of the node
+     * @param capacity The number of nodes to allocate storage for
+     */
+    public CompactTree(V value, int capacity)
+    {
+        this(new Storage(Math.max(1, capacity)), 0);
+        storage.allocate(value);
+    }
+    
+    
+    private CompactTree(Storage storage, int index)
+    {
+        super(index);
+        this.storage = storage;
+    }
+    
+    
+    /**
+     * Returns the number of nodes allocated in the storage of this Tree, including
+     * nodes that have been removed.
+     * 
+     * @return The number of nodes allocated
+     */
+    public int getNodeCount()
+    {
+        return storage.size;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#storage()
+     */
+    protected Object storage()
+    {
+        return storage;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#node(int)
+     */
+    protected CompactTree<V> node(int index)
+    {
+        return index >= 0 ? new CompactTree<V>(storage, index) : null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#parentIndex(int)
+     */
+    protected int parentIndex(int index)
+    {
+        return storage.parent[index];
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#firstChildIndex(int)
+     */
+    protected int firstChildIndex(int index)
+    {
+        return storage.child[index];
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#nextSiblingIndex(int)
+     */
+    protected int nextSiblingIndex(int index)
+    {
+        return storage.nextSibling[index];
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#previousSiblingIndex(int)
+     */
+    protected int previousSiblingIndex(int index)
+    {
+        return storage.previousSibling[index];
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#valueAt(int)
+     */
+    protected V valueAt(int index)
+    {
+        return (V) storage.values[index];
+    }
+    
+    
+    /**
+     * Returns the last child of this node.
+     * 
+     * @return The last child or null
+     */
+    public CompactTree<V> getLastChild()
+    {
+        return node(storage.lastChildOf(index));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setValue(V)
+     */
+    @Override
+    public void setValue(V value)
+    {
+        storage.values[index] = value;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setParent(T)
+     */
+    @Override
+    public void setParent(CompactTree<V> parent)
+    {
+        storage.parent[index] = indexOf(parent);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setFirstChild(T)
+     */
+    @Override
+    public void setFirstChild(CompactTree<V> child)
+    {
+        storage.child[index] = indexOf(child);
+        storage.lastChild[index] = -1;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setNextSibling(T)
+     */
+    @Override
+    public void setNextSibling(CompactTree<V> sibling)
+    {
+        storage.nextSibling[index] = indexOf(sibling);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setPreviousSibling(T)
+     */
+    @Override
+    public void setPreviousSibling(CompactTree<V> sibling)
+    {
+        storage.previousSibling[index] = indexOf(sibling);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(V, int)
+     */
+    @Override
+    public CompactTree<V> add(V value, int mode)
+    {
+        return node(storage.add(index, storage.allocate(value), mode));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(T, int)
+     */
+    @Override
+    public CompactTree<V> add(CompactTree<V> newNode, int mode)
+    {
+        int node = indexOf(newNode);
+        if (node == index)
+        {
+            throw new IllegalArgumentException("A node cannot be added to itself");
+        }
+        storage.unlink(node);
+        return node(storage.add(index, node, mode));
+    }
+    
+    
+    /**
+     * Adds a new child node to the end of the list of children.
+     * 
+     * @param value The value of the new node
+     * @return The node that was added to the Tree
+     */
+    public CompactTree<V> addChild(V value)
+    {
+        return add(value, LASTCHILD);
+    }
+    
+    
+    /**
+     * Adds a new sibling node to the end of the list of siblings.
+     * 
+     * @param value The value of the new node
+     * @return The node that was added to the Tree
+     */
+    public CompactTree<V> addSibling(V value)
+    {
+        return add(value, LAST);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#replace(T)
+     */
+    @Override
+    public void replace(CompactTree<V> newNode)
+    {
+        if (newNode == null)
+        {
+            remove();
+        } else if (!equals(newNode))
+        {
+            add(newNode, PREVIOUS);
+            remove();
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#remove()
+     */
+    @Override
+    public void remove()
+    {
+        storage.unlink(index);
+    }
+    
+    
+    private int indexOf(CompactTree<V> node)
+    {
+        if (node == null)
+        {
+            return -1;
+        } else if (node.storage != storage)
+        {
+            throw new IllegalArgumentException("Node belongs to another CompactTree");
+        }
+        return node.index;
+    }
+    
+    
+    /**
+     * The parallel arrays holding the nodes of a Tree, shared by all of its nodes.
+     */
+    private static final class Storage
+    {
+        private int[] parent;
+        
+        private int[] child;
+        
+        private int[] lastChild;
+        
+        private int[] nextSibling;
+        
+        private int[] previousSibling;
+        
+        private Object[] values;
+        
+        private int size;
+        
+        
+        private Storage(int capacity)
+        {
+            parent = new int[capacity];
+            child = new int[capacity];
+            lastChild = new int[capacity];
+            nextSibling = new int[capacity];
+            previousSibling = new int[capacity];
+            values = new Object[capacity];
+        }
+        
+        
+        private int allocate(Object value)
+        {
+            if (size == values.length)
+            {
+                int capacity = values.length + Math.max(DEFAULT_CAPACITY, values.length >> 1);
+                if (capacity < 0)
+                {
+                    capacity = Integer.MAX_VALUE - 8;
+                }
+                if (capacity <= size)
+                {
+                    throw new IllegalStateException("CompactTree is full at " + size + " nodes");
+                }
+                parent = Arrays.copyOf(parent, capacity);
+                child = Arrays.copyOf(child, capacity);
+                lastChild = Arrays.copyOf(lastChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                previousSibling = Arrays.copyOf(previousSibling, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            
+            int node = size++;
+            parent[node] = -1;
+            child[node] = -1;
+            lastChild[node] = -1;
+            nextSibling[node] = -1;
+            previousSibling[node] = -1;
+            values[node] = value;
+            return node;
+        }
+        
+        
+        @SuppressWarnings("fallthrough")
+        private int add(int refNode, int newNode, int mode)
+        {
+            switch (mode)
+            {
+                case PARENT:
+                    // The new node takes the place of the reference node among its
+                    // siblings and adopts the reference node as its only child.
+                    int refParent = parent[refNode];
+                    parent[newNode] = refParent;
+                    nextSibling[newNode] = nextSibling[refNode];
+                    previousSibling[newNode] = previousSibling[refNode];
+                    if (refParent >= 0)
+                    {
+                        if (child[refParent] == refNode)
+                        {
+                            child[refParent] = newNode;
+                        }
+                        if (lastChild[refParent] == refNode)
+                        {
+                            lastChild[refParent] = newNode;
+                        }
+                    }
+                    if (nextSibling[refNode] >= 0)
+                    {
+                        previousSibling[nextSibling[refNode]] = newNode;
+                    }
+                    if (previousSibling[refNode] >= 0)
+                    {
+                        nextSibling[previousSibling[refNode]] = newNode;
+                    }
+                    child[newNode] = refNode;
+                    lastChild[newNode] = refNode;
+                    parent[refNode] = newNode;
+                    nextSibling[refNode] = -1;
+                    previousSibling[refNode] = -1;
+                    break;
+                case CHILD:
+                    if (child[refNode] >= 0)
+                    {
+                        linkBefore(child[refNode], newNode);
+                        break;
+                    }
+                    // fall through, the first child is also the last
+                case LASTCHILD:
+                    if (lastChildOf(refNode) >= 0)
+                    {
+                        linkAfter(lastChild[refNode], newNode);
+                    } else
+                    {
+                        child[refNode] = newNode;
+                        lastChild[refNode] = newNode;
+                        parent[newNode] = refNode;
+                        nextSibling[newNode] = -1;
+                        previousSibling[newNode] = -1;
+                    }
+                    break;
+                case NEXT:
+                    linkAfter(refNode, newNode);
+                    break;
+                case PREVIOUS:
+                    linkBefore(refNode, newNode);
+                    break;
+                case LAST:
+                    int last = refNode;
+                    if (parent[refNode] >= 0)
+                    {
+                        last = lastChildOf(parent[refNode]);
+                    } else
+                    {
+                        // Top level siblings have no parent to cache the tail in.
+                        while (nextSibling[last] >= 0)
+                        {
+                            last = nextSibling[last];
+                        }
+                    }
+                    linkAfter(last, newNode);
+                    break;
+            }
+            
+            return newNode;
+        }
+        
+        
+        /**
+         * Returns the last child of the node.  The cached tail is invalidated when the
+         * links are set directly, in which case it is located by walking the siblings.
+         */
+        private int lastChildOf(int node)
+        {
+            if (child[node] < 0)
+            {
+                return -1;
+            }
+            
+            int last = lastChild[node];
+            if (last < 0 || nextSibling[last] >= 0 || parent[last] != node)
+            {
+                last = last >= 0 && parent[last] == node ? last : child[node];
+                while (nextSibling[last] >= 0)
+                {
+                    last = nextSibling[last];
+                }
+                lastChild[node] = last;
+            }
+            return last;
+        }
+        
+        
+        private void linkAfter(int refNode, int newNode)
+        {
+            int next = nextSibling[refNode];
+            parent[newNode] = parent[refNode];
+            previousSibling[newNode] = refNode;
+            nextSibling[newNode] = next;
+            nextSibling[refNode] = newNode;
+            if (next >= 0)
+            {
+                previousSibling[next] = newNode;
+            } else if (parent[refNode] >= 0)
+            {
+                lastChild[parent[refNode]] = newNode;
+            }
+        }
+        
+        
+        private void linkBefore(int refNode, int newNode)
+        {
+            int previous = previousSibling[refNode];
+            parent[newNode] = parent[refNode];
+            previousSibling[newNode] = previous;
+            nextSibling[newNode] = refNode;
+            previousSibling[refNode] = newNode;
+            if (previous >= 0)
+            {
+                nextSibling[previous] = newNode;
+            } else if (parent[refNode] >= 0)
+            {
+                child[parent[refNode]] = newNode;
+            }
+        }
+        
+        
+        private void unlink(int node)
+        {
+            int refParent = parent[node];
+            int next = nextSibling[node];
+            int previous = previousSibling[node];
+            if (refParent >= 0)
+            {
+                if (child[refParent] == node)
+                {
+                    child[refParent] = next;
+                }
+                if (lastChild[refParent] == node)
+                {
+                    lastChild[refParent] = previous;
+                }
+            }
+            if (previous >= 0)
+            {
+                nextSibling[previous] = next;
+            }
+            if (next >= 0)
+            {
+                previousSibling[next] = previous;
+            }
+            parent[node] = -1;
+            nextSibling[node] = -1;
+            previousSibling[node] = -1;
+        }
+    }
+}
@@ -0,0 +1,903 @@
+package net.posick.tree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * The ConcurrentLinkedTree is a thread safe LinkedTree for trees that grow by
+ * appending nodes.  Children are appended with a compare and set of the link of
+ * the last child, so any number of threads may append children to the same node
+ * and read the tree without locking.  Nodes are removed by marking them deleted,
+ * deleted nodes are skipped by readers and unlinked by the threads passing them.
+ * <p>
+ * The children of a node are held in the order they were appended, the previous
+ * sibling of a node never changes, so only appending is supported; adding a node
+ * in any other place, replacing a node and setting the links directly are not.
+ * A removed node can not be added again.  Lookups by value use a concurrent child
+ * index once the children of a node exceed the child index threshold.  Counts and
+ * positions are counted when requested, as they may change while being counted.
+ *
+ * @author Steve Posick
+ *
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+@XmlRootElement(name = "ConcurrentLinkedTree")
+@XmlType(name="ConcurrentLinkedTree", propOrder = {"value"})
+@XmlAccessorType(XmlAccessType.NONE)
+public class ConcurrentLinkedTree<V> extends AbstractTree<ConcurrentLinkedTree<V>, V>
+{
+    private static final long serialVersionUID = 201610181200L;
+    
+    private static final VarHandle LINKED;
+    
+    private static final VarHandle FIRST;
+    
+    private static final VarHandle LAST_HINT;
+    
+    private static final VarHandle NEXT;
+    
+    private static final VarHandle DELETED;
+    
+    private static final VarHandle INDEX;
+    
+    private static final VarHandle APPENDED;
+    
+    static
+    {
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            LINKED = lookup.findVarHandle(ConcurrentLinkedTree.class, "linked", boolean.class);
+            FIRST = lookup.findVarHandle(ConcurrentLinkedTree.class, "first", ConcurrentLinkedTree.class);
+            LAST_HINT = lookup.findVarHandle(ConcurrentLinkedTree.class, "lastHint", ConcurrentLinkedTree.class);
+            NEXT = lookup.findVarHandle(ConcurrentLinkedTree.class, "next", ConcurrentLinkedTree.class);
+            DELETED = lookup.findVarHandle(ConcurrentLinkedTree.class, "deleted", boolean.class);
+            INDEX = lookup.findVarHandle(ConcurrentLinkedTree.class, "index", ChildIndex.class);
+            APPENDED = lookup.findVarHandle(ConcurrentLinkedTree.class, "appended", int.class);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    @XmlElement(name="Value")
+    private volatile V value;
+    
+    private transient volatile ConcurrentLinkedTree<V> parentNode;
+    
+    private transient volatile ConcurrentLinkedTree<V> first;
+    
+    private transient volatile ConcurrentLinkedTree<V> lastHint;
+    
+    private transient volatile ConcurrentLinkedTree<V> next;
+    
+    private transient ConcurrentLinkedTree<V> previous;
+    
+    private transient volatile boolean linked;
+    
+    private transient volatile boolean deleted;
+    
+    private transient volatile ChildIndex index;
+    
+    private transient volatile int appended;
+    
+    
+    /**
+     * The concurrent index of a node's children by value.  Each value is mapped to
+     * a child holding it, values held by more than one child are counted so that a
+     * missing value is only searched for when duplicates exist.
+     */
+    private static final class ChildIndex extends ConcurrentHashMap<Object, ConcurrentLinkedTree>
+    {
+        private static final long serialVersionUID = 201610181200L;
+        
+        private final AtomicInteger duplicates = new AtomicInteger();
+        
+        
+        private void index(Object value, ConcurrentLinkedTree node)
+        {
+            ConcurrentLinkedTree holder = putIfAbsent(value, node);
+            if (holder != null && holder != node)
+            {
+                duplicates.incrementAndGet();
+            }
+        }
+    }
+    
+    
+    public ConcurrentLinkedTree()
+    {
+        super();
+    }
+    
+    
+    public ConcurrentLinkedTree(V value)
+    {
+        super();
+        this.value = value;
+    }
+    
+    
+    public ConcurrentLinkedTree(ConcurrentLinkedTree<V> parent, V value)
+    {
+        super();
+        this.value = value;
+        parent.addChild(this);
+    }
+    
+    
+    @Override
+    public V getValue()
+    {
+        return value;
+    }
+    
+    
+    @Override
+    public void setValue(V value)
+    {
+        V oldValue = this.value;
+        this.value = value;
+        
+        ConcurrentLinkedTree<V> parent = getParent();
+        ChildIndex index = parent != null ? parent.index : null;
+        if (index != null)
+        {
+            parent.unindex(this, oldValue);
+            if (value != null)
+            {
+                index.index(value, this);
+            }
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getParent()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getParent()
+    {
+        return deleted ? null : parentNode;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getFirstChild()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getFirstChild()
+    {
+        ConcurrentLinkedTree<V> node = first;
+        while (node != null && node.deleted)
+        {
+            ConcurrentLinkedTree<V> successor = node.next;
+            if (successor == null)
+            {
+                return null;
+            }
+            FIRST.compareAndSet(this, node, successor);
+            node = successor;
+        }
+        return node;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getLastChild()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getLastChild()
+    {
+        ConcurrentLinkedTree<V> node = last();
+        while (node != null && node.deleted)
+        {
+            node = node.previous;
+        }
+        return node;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getNextSibling()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getNextSibling()
+    {
+        ConcurrentLinkedTree<V> node = next;
+        while (node != null && node.deleted)
+        {
+            ConcurrentLinkedTree<V> successor = node.next;
+            if (successor == null)
+            {
+                return null;
+            } else if (!deleted)
+            {
+                // unlink the deleted node, the last node is never unlinked so
+                // that concurrent appends are never lost
+                NEXT.compareAndSet(this, node, successor);
+            }
+            node = successor;
+        }
+        return node;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getPreviousSibling()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getPreviousSibling()
+    {
+        ConcurrentLinkedTree<V> node = previous;
+        while (node != null && node.deleted)
+        {
+            node = node.previous;
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Returns the last node of the list of children, which may be deleted.
+     */
+    private ConcurrentLinkedTree<V> last()
+    {
+        ConcurrentLinkedTree<V> node = lastHint;
+        if (node == null && (node = first) == null)
+        {
+            return null;
+        }
+        
+        ConcurrentLinkedTree<V> successor;
+        while ((successor = node.next) != null)
+        {
+            node = successor;
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Appends the node to the children of this node.  The node is claimed by
+     * marking it linked, then linked after the last child with a compare and set,
+     * retrying from the new last child when another thread appended first.
+     */
+    private ConcurrentLinkedTree<V> append(ConcurrentLinkedTree<V> node)
+    {
+        claim(node, this);
+        while (true)
+        {
+            ConcurrentLinkedTree<V> hint = lastHint;
+            ConcurrentLinkedTree<V> last = last();
+            node.previous = last;
+            if (last == null ? FIRST.compareAndSet(this, null, node) : NEXT.compareAndSet(last, null, node))
+            {
+                LAST_HINT.compareAndSet(this, hint, node);
+                break;
+            }
+        }
+        
+        ChildIndex index = this.index;
+        V value = node.value;
+        if (index != null)
+        {
+            if (value != null)
+            {
+                index.index(value, node);
+            }
+        } else
+        {
+            // children are only counted until the index is built
+            int threshold = getChildIndexThreshold();
+            if (threshold > 0 && (int) APPENDED.getAndAdd(this, 1) + 1 >= threshold)
+            {
+                buildIndex();
+            }
+        }
+        return node;
+    }
+    
+    
+    /**
+     * Appends the node to the top level siblings of this node, which have no parent.
+     */
+    private ConcurrentLinkedTree<V> appendSibling(ConcurrentLinkedTree<V> node)
+    {
+        claim(node, null);
+        while (true)
+        {
+            ConcurrentLinkedTree<V> last = this;
+            ConcurrentLinkedTree<V> successor;
+            while ((successor = last.next) != null)
+            {
+                last = successor;
+            }
+            node.previous = last;
+            if (NEXT.compareAndSet(last, null, node))
+            {
+                return node;
+            }
+        }
+    }
+    
+    
+    private static void claim(ConcurrentLinkedTree node, ConcurrentLinkedTree parent)
+    {
+        if (node.deleted || !LINKED.compareAndSet(node, false, true))
+        {
+            throw new IllegalArgumentException("The node is already part of a tree or was removed");
+        }
+        node.parentNode = parent;
+        if (parent != null && node.getChildIndexThreshold() == 0)
+        {
+            node.setChildIndexThreshold(parent.getChildIndexThreshold());
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#add(T, int)
+     */
+    @Override
+    public ConcurrentLinkedTree<V> add(ConcurrentLinkedTree<V> newNode, int mode)
+    {
+        switch (mode)
+        {
+            case LASTCHILD:
+                return append(newNode);
+            case LAST:
+                ConcurrentLinkedTree<V> parent = parentNode;
+                return parent != null ? parent.append(newNode) : appendSibling(newNode);
+            default:
+                throw new UnsupportedOperationException("ConcurrentLinkedTree only appends nodes, mode " + mode + " is not supported");
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#add(V, int)
+     */
+    @Override
+    public ConcurrentLinkedTree<V> add(V value, int mode)
+    {
+        return add(getNodeFactory().newNode(value), mode);
+    }
+    
+    
+    @Override
+    public ConcurrentLinkedTree<V> addChild(V value)
+    {
+        return append(getNodeFactory().newNode(value));
+    }
+    
+    
+    @Override
+    public ConcurrentLinkedTree<V> addChild(ConcurrentLinkedTree<V> newNode)
+    {
+        return append(newNode);
+    }
+    
+    
+    @Override
+    public ConcurrentLinkedTree<V> addSibling(V value)
+    {
+        return add(getNodeFactory().newNode(value), LAST);
+    }
+    
+    
+    @Override
+    public ConcurrentLinkedTree<V> addSibling(ConcurrentLinkedTree<V> newNode)
+    {
+        return add(newNode, LAST);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getChild(V)
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getChild(V value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        
+        ChildIndex index = this.index;
+        if (index != null)
+        {
+            ConcurrentLinkedTree<V> node = index.get(value);
+            if (node != null && !node.deleted && value.equals(node.value))
+            {
+                return node;
+            } else if (node == null && index.duplicates.get() == 0)
+            {
+                return null;
+            }
+        }
+        
+        for (ConcurrentLinkedTree<V> node = getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (value.equals(node.value))
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Installs the child index, then indexes the children.  Children appended
+     * after the index was installed index themselves, children appended before are
+     * found by the walk.
+     */
+    private void buildIndex()
+    {
+        ChildIndex index = new ChildIndex();
+        if (INDEX.compareAndSet(this, null, index))
+        {
+            for (ConcurrentLinkedTree<V> node = getFirstChild(); node != null; node = node.getNextSibling())
+            {
+                V value = node.value;
+                if (value != null)
+                {
+                    index.index(value, node);
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Removes the child from the index, indexing the next child holding the value
+     * when the value may be duplicated.
+     */
+    private void unindex(ConcurrentLinkedTree<V> node, V value)
+    {
+        ChildIndex index = this.index;
+        if (value != null && index != null && index.remove(value, node) && index.duplicates.get() > 0)
+        {
+            for (ConcurrentLinkedTree<V> child = getFirstChild(); child != null; child = child.getNextSibling())
+            {
+                if (child != node && value.equals(child.value))
+                {
+                    index.putIfAbsent(value, child);
+                    break;
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Sets the number of children at which this node indexes its children, the
+     * index is built at once if the node already has as many children.
+     * 
+     * @param threshold The child index threshold, 0 to drop the index
+     */
+    @Override
+    public void setChildIndexThreshold(int threshold)
+    {
+        super.setChildIndexThreshold(threshold);
+        if (threshold <= 0)
+        {
+            index = null;
+        } else if (index == null && getChildCount() >= threshold)
+        {
+            buildIndex();
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getSibling(V)
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getSibling(V value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        
+        for (ConcurrentLinkedTree<V> node : getSiblings())
+        {
+            if (value.equals(node.value))
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Removes this node and its descendants by marking it deleted.  The node is
+     * unlinked by the next thread passing it, unless it is the last child.
+     */
+    @Override
+    public void remove()
+    {
+        if (DELETED.compareAndSet(this, false, true))
+        {
+            ConcurrentLinkedTree<V> parent = parentNode;
+            if (parent != null)
+            {
+                parent.unindex(this, value);
+                parent.getFirstChild();
+            }
+            
+            ConcurrentLinkedTree<V> previous = getPreviousSibling();
+            if (previous != null)
+            {
+                previous.getNextSibling();
+            }
+        }
+    }
+    
+    
+    /**
+     * Returns true if this node was removed.
+     *
+     * @return True if the node was removed
+     */
+    public boolean isRemoved()
+    {
+        return deleted;
+    }
+    
+    
+    /**
+     * The links of a ConcurrentLinkedTree are held by its own fields, the static
+     * helpers of the AbstractTree use the overridden accessors.
+     */
+    @Override
+    boolean inheritsLinks()
+    {
+        return false;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#hasChildren()
+     */
+    @Override
+    public boolean hasChildren()
+    {
+        return getFirstChild() != null;
+    }
+    
+    
+    @Override
+    public int getChildCount()
+    {
+        int count = 0;
+        for (ConcurrentLinkedTree<V> node = getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    
+    @Override
+    public int getDescendantCount()
+    {
+        return getDescendants().size();
+    }
+    
+    
+    @Override
+    public int getPosition()
+    {
+        int position = 0;
+        for (ConcurrentLinkedTree<V> node = getPreviousSibling(); node != null; node = node.getPreviousSibling())
+        {
+            position++;
+        }
+        return position;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getDescendants()
+     */
+    @Override
+    public List<ConcurrentLinkedTree<V>> getDescendants()
+    {
+        return new NodeList(this, true, null);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getChildren()
+     */
+    @Override
+    public List<ConcurrentLinkedTree<V>> getChildren()
+    {
+        return new NodeList(this, false, null);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getSiblings()
+     */
+    @Override
+    public List<ConcurrentLinkedTree<V>> getSiblings()
+    {
+        ConcurrentLinkedTree<V> parent = getParent();
+        if (parent != null)
+        {
+            return new NodeList(parent, false, this);
+        }
+        
+        ConcurrentLinkedTree<V> first = this;
+        for (ConcurrentLinkedTree<V> node = getPreviousSibling(); node != null; node = node.getPreviousSibling())
+        {
+            first = node;
+        }
+        return new NodeList(first, this);
+    }
+    
+    
+    @Override
+    public Stream<ConcurrentLinkedTree<V>> stream()
+    {
+        return Stream.concat(Stream.of(this), getDescendants().stream());
+    }
+    
+    
+    @Override
+    public Stream<ConcurrentLinkedTree<V>> parallelStream()
+    {
+        return Stream.concat(Stream.of(this), getDescendants().parallelStream());
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getRoot()
+     */
+    @Override
+    public ConcurrentLinkedTree<V> getRoot()
+    {
+        ConcurrentLinkedTree<V> root = this;
+        for (ConcurrentLinkedTree<V> parent = getParent(); parent != null; parent = parent.getParent())
+        {
+            root = parent;
+        }
+        return root;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.AbstractTree#getDepth()
+     */
+    @Override
+    public int getDepth()
+    {
+        int depth = 0;
+        for (ConcurrentLinkedTree<V> parent = getParent(); parent != null; parent = parent.getParent())
+        {
+            depth++;
+        }
+        return depth;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point.  The walk follows the
+     * parent links back up the tree, so the depth of the tree is not limited.
+     *
+     * @param action The action to perform for each node, flow control
+     */
+    @Override
+    public void traverse(TraverseAction action)
+    {
+        ConcurrentLinkedTree<V> current = this;
+        int level = 1;
+        
+        while (current != null)
+        {
+            int result = action.action(current, level);
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            }
+            
+            ConcurrentLinkedTree<V> next = result == TraverseAction.CONTINUE ? current.getFirstChild() : null;
+            if (next != null)
+            {
+                level++;
+            } else
+            {
+                while ((next = current.getNextSibling()) == null && level > 1)
+                {
+                    current = current.parentNode;
+                    level--;
+                }
+            }
+            current = next;
+        }
+    }
+    
+    
+    /**
+     * Traverses the tree sequentially, the concurrent links are not split between
+     * tasks.
+     */
+    @Override
+    public void parallelTraverse(TraverseAction action)
+    {
+        traverse(action);
+    }
+    
+    
+    @Override
+    public void replace(ConcurrentLinkedTree<V> newNode)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree nodes can not be replaced");
+    }
+    
+    
+    @Override
+    public void setParent(ConcurrentLinkedTree<V> parent)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree links are set by appending nodes");
+    }
+    
+    
+    @Override
+    public void setFirstChild(ConcurrentLinkedTree<V> child)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree links are set by appending nodes");
+    }
+    
+    
+    @Override
+    public void setNextSibling(ConcurrentLinkedTree<V> nextSibling)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree links are set by appending nodes");
+    }
+    
+    
+    @Override
+    public void setPreviousSibling(ConcurrentLinkedTree<V> previousSibling)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree links are set by appending nodes");
+    }
+    
+    
+    @Override
+    public TreeSnapshot<V> snapshot()
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree does not support snapshots");
+    }
+    
+    
+    @Override
+    public void addTreeListener(TreeListener<ConcurrentLinkedTree<V>, V> listener)
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree does not support listeners");
+    }
+    
+    
+    @Override
+    public TreeBatch<ConcurrentLinkedTree<V>, V> batch()
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree does not support batches");
+    }
+    
+    
+    @Override
+    public IntervalIndex indexIntervals()
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree does not support interval indexes");
+    }
+    
+    
+    @Override
+    public ConcurrentLinkedTree<V> clone()
+    {
+        throw new UnsupportedOperationException("ConcurrentLinkedTree nodes can not be cloned");
+    }
+    
+    
+    /**
+     * The children or descendants of a node, or the siblings of one of them, read as
+     * they are iterated.  The size is counted.
+     */
+    private class NodeList extends AbstractList<ConcurrentLinkedTree<V>>
+    {
+        private final ConcurrentLinkedTree<V> parent;
+        
+        private final ConcurrentLinkedTree<V> first;
+        
+        private final boolean recursive;
+        
+        private final ConcurrentLinkedTree<V> ignore;
+        
+        
+        private NodeList(ConcurrentLinkedTree<V> parent, boolean recursive, ConcurrentLinkedTree<V> ignore)
+        {
+            this.parent = parent;
+            this.first = null;
+            this.recursive = recursive;
+            this.ignore = ignore;
+        }
+        
+        
+        private NodeList(ConcurrentLinkedTree<V> first, ConcurrentLinkedTree<V> ignore)
+        {
+            this.parent = null;
+            this.first = first;
+            this.recursive = false;
+            this.ignore = ignore;
+        }
+        
+        
+        @Override
+        public boolean add(ConcurrentLinkedTree<V> node)
+        {
+            if (parent != null)
+            {
+                parent.append(node);
+            } else
+            {
+                first.appendSibling(node);
+            }
+            return true;
+        }
+        
+        
+        @Override
+        public Iterator<ConcurrentLinkedTree<V>> iterator()
+        {
+            return new TreeIterator<ConcurrentLinkedTree<V>, V>(parent != null ? parent.getFirstChild() : first, recursive, true, ignore);
+        }
+        
+        
+        @Override
+        public ConcurrentLinkedTree<V> get(int index)
+        {
+            if (index >= 0)
+            {
+                int count = 0;
+                for (ConcurrentLinkedTree<V> node : this)
+                {
+                    if (count++ == index)
+                    {
+                        return node;
+                    }
+                }
+            }
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds");
+        }
+        
+        
+        @Override
+        public int size()
+        {
+            int count = 0;
+            for (Iterator<ConcurrentLinkedTree<V>> nodes = iterator(); nodes.hasNext(); nodes.next())
+            {
+                count++;
+            }
+            return count;
+        }
+    }
+}
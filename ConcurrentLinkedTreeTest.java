@@ -0,0 +1,123 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the shared helpers of the AbstractTree on a ConcurrentLinkedTree and
+ * appends to a node from several threads, then checks that every node is visited
+ * and counted.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ConcurrentLinkedTreeTest
+{
+    private static final int THREADS = 4;
+    
+    private static final int APPENDS = 10000;
+    
+    
+    public ConcurrentLinkedTreeTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        ConcurrentLinkedTree<String> root = new ConcurrentLinkedTree<String>("Root");
+        ConcurrentLinkedTree<String> a = root.addChild("A");
+        ConcurrentLinkedTree<String> b = root.addChild("B");
+        ConcurrentLinkedTree<String> a1 = a.addChild("A1");
+        b.addChild("B1");
+        
+        check(count(root, false) == 5, "traverse visited " + count(root, false) + " of 5 nodes");
+        check(count(root, true) == 5, "parallelTraverse visited " + count(root, true) + " of 5 nodes");
+        check(AbstractTree.getRoot(a1) == root, "getRoot");
+        
+        ConcurrentLinkedTree<String> c = AbstractTree.add(root, new ConcurrentLinkedTree<String>("C"), Tree.LASTCHILD);
+        check(c.getParent() == root && root.getLastChild() == c, "add");
+        AbstractTree.remove(a);
+        check(a.isRemoved() && root.getFirstChild() == b, "remove");
+        check(count(root, false) == 4, "traverse visited a removed node");
+        try
+        {
+            AbstractTree.replace(b, new ConcurrentLinkedTree<String>("D"));
+            throw new AssertionError("replace");
+        } catch (UnsupportedOperationException e)
+        {
+            // ConcurrentLinkedTree nodes can not be replaced.
+        }
+        
+        final ConcurrentLinkedTree<String> hub = root.addChild("Hub");
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++)
+        {
+            final String name = "T" + i;
+            threads.add(new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    for (int j = 0; j < APPENDS; j++)
+                    {
+                        hub.addChild(name + ":" + j);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        check(hub.getChildCount() == THREADS * APPENDS, "appended " + hub.getChildCount() + " of " + THREADS * APPENDS + " children");
+        check(count(root, false) == 5 + THREADS * APPENDS, "traverse after appends");
+        check(hub.getChild("T2:77") != null, "getChild");
+        
+        System.out.println("ConcurrentLinkedTreeTest passed");
+    }
+    
+    
+    /**
+     * Counts the nodes visited by the static traversal helpers.
+     */
+    private static int count(AbstractTree root, boolean parallel)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        TraverseAction action = new TraverseAction()
+        {
+            public int action(Tree node, int level)
+            {
+                count.incrementAndGet();
+                return TraverseAction.CONTINUE;
+            }
+        };
+        if (parallel)
+        {
+            AbstractTree.parallelTraverse(root, action, ForkJoinPool.commonPool(), 1);
+        } else
+        {
+            AbstractTree.traverse(root, action);
+        }
+        return count.get();
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
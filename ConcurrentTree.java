@@ -0,0 +1,724 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The ConcurrentTree is a thread safe facade over an AbstractTree.  All access to
+ * the tree is made through the facade, which locks the part of the tree an
+ * operation reads or modifies.
+ * <p>
+ * The tree is divided into branches, the subtrees of the children of the root.
+ * Each branch is guarded by one of a set of striped StampedLocks and the children
+ * of the root by a root StampedLock, so writers in different branches do not
+ * block each other.  Changes to the children of the root take the root lock
+ * exclusively, changes within a branch take the root lock shared and the lock of
+ * the branch exclusively.  Readers first read optimistically, without locking,
+ * and only lock when the read was invalidated by a concurrent writer.
+ * <p>
+ * <code>traverse</code>, <code>getChildren</code> and <code>getDescendants</code>
+ * copy the nodes they read, the traverse actions are executed once the copy is
+ * complete and no lock is held, so actions may modify the tree through the
+ * facade.  Nodes returned by the facade must only be read or modified through the
+ * facade.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ConcurrentTree<T extends AbstractTree<T, V>, V>
+{
+    private static final int VALIDATE_INTERVAL = 64;
+    
+    private static final Guard LOCKED = new Guard(null);
+    
+    private final T root;
+    
+    private final StampedLock rootLock = new StampedLock();
+    
+    private final StampedLock[] stripes;
+    
+    
+    /**
+     * Creates a ConcurrentTree over the tree, with a stripe for every four processors.
+     * 
+     * @param root The root node of the tree
+     */
+    public ConcurrentTree(T root)
+    {
+        this(root, 4 * Runtime.getRuntime().availableProcessors());
+    }
+    
+    
+    /**
+     * Creates a ConcurrentTree over the tree.
+     * 
+     * @param root The root node of the tree
+     * @param stripes The number of branch locks, rounded up to a power of two
+     */
+    public ConcurrentTree(T root, int stripes)
+    {
+        if (root.getParent() != null)
+        {
+            throw new IllegalArgumentException("The node is not the root of a tree");
+        }
+        
+        this.root = root;
+        this.stripes = new StampedLock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+        for (int index = 0; index < this.stripes.length; index++)
+        {
+            this.stripes[index] = new StampedLock();
+        }
+    }
+    
+    
+    /**
+     * Returns the root node of the tree.
+     * 
+     * @return The root node
+     */
+    public T getRoot()
+    {
+        return root;
+    }
+    
+    
+    /**
+     * Returns the value of the node.
+     * 
+     * @param node The node
+     * @return The value
+     */
+    public V getValue(final T node)
+    {
+        return read(node, new Operation<V>()
+        {
+            public V perform(Guard guard)
+            {
+                return node.getValue();
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns the parent of the node.
+     * 
+     * @param node The node
+     * @return The parent or null
+     */
+    public T getParent(final T node)
+    {
+        return read(node, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                return node.getParent();
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns the first child of the parent holding the value.
+     * 
+     * @param parent The parent node
+     * @param value The value
+     * @return The child or null
+     */
+    public T getChild(final T parent, final V value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        
+        return read(parent, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                return (T) AbstractTree.peekChild(parent, value);
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns a copy of the list of the children of the parent.
+     * 
+     * @param parent The parent node
+     * @return The children
+     */
+    public List<T> getChildren(final T parent)
+    {
+        return read(parent, new Operation<List<T>>()
+        {
+            public List<T> perform(Guard guard)
+            {
+                List<T> children = new ArrayList<T>();
+                for (T node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+                {
+                    children.add(node);
+                    if (children.size() % VALIDATE_INTERVAL == 0 && !guard.validate())
+                    {
+                        break;
+                    }
+                }
+                return children;
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns a copy of the list of the descendants of the node, in preorder.
+     * 
+     * @param node The node
+     * @return The descendants
+     */
+    public List<T> getDescendants(T node)
+    {
+        List<T> descendants = new ArrayList<T>();
+        collect(node, descendants, null);
+        return descendants.isEmpty() ? descendants : descendants.subList(1, descendants.size());
+    }
+    
+    
+    /**
+     * Takes a snapshot of the tree while no writer is active.  The snapshot is read
+     * without locking, directly rather than through the facade, and sees the tree
+     * as it was while writers continue.
+     * 
+     * @return The root of the snapshot
+     */
+    public TreeSnapshot<V> snapshot()
+    {
+        long stamp = rootLock.writeLock();
+        try
+        {
+            return root.snapshot();
+        } finally
+        {
+            rootLock.unlockWrite(stamp);
+        }
+    }
+    
+    
+    /**
+     * Returns the number of descendants of the node.
+     * 
+     * @param node The node
+     * @return The number of descendants
+     */
+    public int getDescendantCount(final T node)
+    {
+        Integer count = read(node, new Operation<Integer>()
+        {
+            public Integer perform(Guard guard)
+            {
+                return Integer.valueOf(AbstractTree.peekDescendantCount(node));
+            }
+        });
+        
+        if (count.intValue() < 0)
+        {
+            // Recounting writes the counts, so it is done as a write.
+            count = write(node, false, new Operation<Integer>()
+            {
+                public Integer perform(Guard guard)
+                {
+                    return Integer.valueOf(node.getDescendantCount());
+                }
+            });
+        }
+        return count.intValue();
+    }
+    
+    
+    /**
+     * Traverses the tree using the node as a starting point, the node and its
+     * descendants are copied and the action is executed for each copied node once
+     * no lock is held.  The siblings of the starting node are not traversed.
+     * 
+     * @param node The starting node
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(T node, TraverseAction<T, V> action)
+    {
+        List<T> nodes = new ArrayList<T>();
+        List<Integer> levels = new ArrayList<Integer>();
+        collect(node, nodes, levels);
+        
+        int skipLevel = Integer.MAX_VALUE;
+        for (int index = 0; index < nodes.size(); index++)
+        {
+            int level = levels.get(index).intValue();
+            if (level > skipLevel)
+            {
+                continue;
+            }
+            
+            skipLevel = Integer.MAX_VALUE;
+            int result = action.action(nodes.get(index), level);
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            } else if (result == TraverseAction.STOP_BRANCH)
+            {
+                skipLevel = level;
+            }
+        }
+    }
+    
+    
+    private void collect(final T start, final List<T> nodes, final List<Integer> levels)
+    {
+        read(start, new Operation<Boolean>()
+        {
+            public Boolean perform(Guard guard)
+            {
+                nodes.clear();
+                if (levels != null)
+                {
+                    levels.clear();
+                }
+                
+                T node = start;
+                int level = 1;
+                while (node != null)
+                {
+                    nodes.add(node);
+                    if (levels != null)
+                    {
+                        levels.add(Integer.valueOf(level));
+                    }
+                    if (nodes.size() % VALIDATE_INTERVAL == 0 && !guard.validate())
+                    {
+                        break;
+                    }
+                    
+                    if (node.getFirstChild() != null)
+                    {
+                        node = node.getFirstChild();
+                        level++;
+                    } else
+                    {
+                        while (node != start && node.getNextSibling() == null)
+                        {
+                            node = node.getParent();
+                            level--;
+                        }
+                        node = node != start ? node.getNextSibling() : null;
+                    }
+                }
+                return Boolean.TRUE;
+            }
+        });
+    }
+    
+    
+    /**
+     * Adds a node to the tree, as by <code>AbstractTree.add(T, int)</code>.
+     * 
+     * @param refNode The reference node, reference point within tree
+     * @param newNode The node that is to be added, not part of any tree
+     * @param mode The node indicator, how the node will be added
+     * @return The node that was added to the Tree
+     */
+    public T add(final T refNode, final T newNode, final int mode)
+    {
+        return write(refNode, mode != Tree.CHILD && mode != Tree.LASTCHILD, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                T node = refNode.add(newNode, mode);
+                AbstractTree parent = node.getParent();
+                if (parent != null)
+                {
+                    AbstractTree.prepareChildIndex(parent);
+                }
+                return node;
+            }
+        });
+    }
+    
+    
+    /**
+     * Adds a new node holding the value to the tree, as by
+     * <code>AbstractTree.add(V, int)</code>.
+     * 
+     * @param refNode The reference node, reference point within tree
+     * @param value The value of the new node
+     * @param mode The node indicator, how the node will be added
+     * @return The node that was added to the Tree
+     */
+    public T add(T refNode, V value, int mode)
+    {
+        return add(refNode, (T) AbstractTree.getNodeFactory(refNode.getClass()).newNode(value), mode);
+    }
+    
+    
+    /**
+     * Adds a new child node holding the value to the end of the list of children.
+     * 
+     * @param parent The parent node
+     * @param value The value of the new node
+     * @return The node that was added to the Tree
+     */
+    public T addChild(T parent, V value)
+    {
+        return add(parent, value, Tree.LASTCHILD);
+    }
+    
+    
+    /**
+     * Removes the node and its descendants from the tree.
+     * 
+     * @param node The node to remove
+     */
+    public void remove(final T node)
+    {
+        if (node == root)
+        {
+            throw new IllegalArgumentException("The root of a ConcurrentTree can not be removed");
+        }
+        
+        write(node, true, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                AbstractTree parent = node.getParent();
+                node.remove();
+                if (parent != null)
+                {
+                    AbstractTree.prepareChildIndex(parent);
+                }
+                return node;
+            }
+        });
+    }
+    
+    
+    /**
+     * Replaces the node with another node.
+     * 
+     * @param oldNode The node to replace
+     * @param newNode The node that will replace the old node, not part of any tree
+     */
+    public void replace(final T oldNode, final T newNode)
+    {
+        if (oldNode == root)
+        {
+            throw new IllegalArgumentException("The root of a ConcurrentTree can not be replaced");
+        }
+        
+        write(oldNode, true, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                AbstractTree parent = oldNode.getParent();
+                oldNode.replace(newNode);
+                if (parent != null)
+                {
+                    AbstractTree.prepareChildIndex(parent);
+                }
+                return newNode;
+            }
+        });
+    }
+    
+    
+    /**
+     * Sets the value of the node.
+     * 
+     * @param node The node
+     * @param value The value
+     */
+    public void setValue(final T node, final V value)
+    {
+        // The value is indexed by the parent, so the parent's branch is locked.
+        write(node, true, new Operation<T>()
+        {
+            public T perform(Guard guard)
+            {
+                node.setValue(value);
+                AbstractTree parent = node.getParent();
+                if (parent != null)
+                {
+                    AbstractTree.prepareChildIndex(parent);
+                }
+                return node;
+            }
+        });
+    }
+    
+    
+    /**
+     * Returns the child of the root whose subtree holds the node, or null if the node
+     * is the root.
+     */
+    private T branchOf(T node)
+    {
+        T branch = null;
+        for (T parent = node.getParent(); parent != null; parent = parent.getParent())
+        {
+            branch = node;
+            node = parent;
+        }
+        
+        if (node != root)
+        {
+            throw new IllegalArgumentException("The node is not part of this tree");
+        }
+        return branch;
+    }
+    
+    
+    /**
+     * Returns the node whose children a write changes, the parent of the node if
+     * requested and the node has one, otherwise the node.
+     */
+    private T scopeOf(T node, boolean parent)
+    {
+        T scope = parent ? node.getParent() : null;
+        return scope != null ? scope : node;
+    }
+    
+    
+    private StampedLock stripeOf(T branch)
+    {
+        return stripes[spread(System.identityHashCode(branch)) & (stripes.length - 1)];
+    }
+    
+    
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+    
+    
+    /**
+     * Performs the read, first optimistically and then, if a writer invalidated the
+     * read, holding the read locks.  Optimistic reads may see the tree part way
+     * through a change, reads that walk the tree validate as they go so that they
+     * do not follow links changed by a writer for long.
+     * <p>
+     * Reads of the root may walk into any branch, so they validate or hold the locks
+     * of every branch as well as the root lock.
+     */
+    private <R> R read(T node, Operation<R> read)
+    {
+        Guard guard = new Guard(rootLock);
+        guard.rootStamp = rootLock.tryOptimisticRead();
+        if (guard.rootStamp != 0)
+        {
+            try
+            {
+                T branch = branchOf(node);
+                boolean stamped;
+                if (branch != null)
+                {
+                    guard.stripe = stripeOf(branch);
+                    guard.stripeStamp = guard.stripe.tryOptimisticRead();
+                    stamped = guard.stripeStamp != 0;
+                } else
+                {
+                    guard.stripes = stripes;
+                    guard.stripeStamps = new long[stripes.length];
+                    stamped = true;
+                    for (int index = 0; index < stripes.length && stamped; index++)
+                    {
+                        guard.stripeStamps[index] = stripes[index].tryOptimisticRead();
+                        stamped = guard.stripeStamps[index] != 0;
+                    }
+                }
+                if (stamped && branchOf(node) == branch)
+                {
+                    R result = read.perform(guard);
+                    if (guard.validate())
+                    {
+                        return result;
+                    }
+                }
+            } catch (RuntimeException e)
+            {
+                // Inconsistent reads are retried holding the locks.
+                if (guard.validate())
+                {
+                    throw e;
+                }
+            }
+        }
+        
+        long rootStamp = rootLock.readLock();
+        try
+        {
+            while (true)
+            {
+                T branch = branchOf(node);
+                if (branch == null)
+                {
+                    return readAll(read);
+                }
+                
+                StampedLock stripe = stripeOf(branch);
+                long stamp = stripe.readLock();
+                try
+                {
+                    if (branchOf(node) == branch)
+                    {
+                        return read.perform(LOCKED);
+                    }
+                } finally
+                {
+                    stripe.unlockRead(stamp);
+                }
+            }
+        } finally
+        {
+            rootLock.unlockRead(rootStamp);
+        }
+    }
+    
+    
+    /**
+     * Performs a read of the root holding the read locks of every branch, taken in
+     * order, with the root lock held shared by the caller.
+     */
+    private <R> R readAll(Operation<R> read)
+    {
+        long[] stamps = new long[stripes.length];
+        int locked = 0;
+        try
+        {
+            for (; locked < stripes.length; locked++)
+            {
+                stamps[locked] = stripes[locked].readLock();
+            }
+            return read.perform(LOCKED);
+        } finally
+        {
+            while (locked-- > 0)
+            {
+                stripes[locked].unlockRead(stamps[locked]);
+            }
+        }
+    }
+    
+    
+    /**
+     * Performs the write holding the locks for its scope, the node whose children
+     * are changed, which is the node or its parent.  Changes to the children of the
+     * root lock the root exclusively, other changes lock the root shared and the
+     * branch holding the scope exclusively.  The scope is found again once the locks
+     * are held, and the locks taken again if a concurrent writer moved the node.
+     * 
+     * @param node The node written
+     * @param parent True if the scope is the parent of the node
+     * @param write The write
+     */
+    private <R> R write(T node, boolean parent, Operation<R> write)
+    {
+        while (true)
+        {
+            long rootStamp = rootLock.readLock();
+            try
+            {
+                T branch;
+                while ((branch = branchOf(scopeOf(node, parent))) != null)
+                {
+                    StampedLock stripe = stripeOf(branch);
+                    long stamp = stripe.writeLock();
+                    try
+                    {
+                        if (branchOf(scopeOf(node, parent)) == branch)
+                        {
+                            return write.perform(LOCKED);
+                        }
+                    } finally
+                    {
+                        stripe.unlockWrite(stamp);
+                    }
+                }
+            } finally
+            {
+                rootLock.unlockRead(rootStamp);
+            }
+            
+            rootStamp = rootLock.writeLock();
+            try
+            {
+                if (branchOf(scopeOf(node, parent)) == null)
+                {
+                    return write.perform(LOCKED);
+                }
+            } finally
+            {
+                rootLock.unlockWrite(rootStamp);
+            }
+            
+            // The node was moved into a branch by a concurrent writer, try again.
+        }
+    }
+    
+    
+    /**
+     * An operation on the tree, performed holding the locks or optimistically.
+     */
+    private static interface Operation<R>
+    {
+        public R perform(Guard guard);
+    }
+    
+    
+    /**
+     * The stamps of an optimistic read.
+     */
+    private static class Guard
+    {
+        private final StampedLock rootLock;
+        
+        private long rootStamp;
+        
+        private StampedLock stripe;
+        
+        private long stripeStamp;
+        
+        private StampedLock[] stripes;
+        
+        private long[] stripeStamps;
+        
+        
+        private Guard(StampedLock rootLock)
+        {
+            this.rootLock = rootLock;
+        }
+        
+        
+        /**
+         * Returns true if no writer has invalidated the read.
+         */
+        boolean validate()
+        {
+            if (this == LOCKED)
+            {
+                return true;
+            } else if (!rootLock.validate(rootStamp) || stripe != null && !stripe.validate(stripeStamp))
+            {
+                return false;
+            }
+            
+            for (int index = 0; stripes != null && index < stripes.length; index++)
+            {
+                if (!stripes[index].validate(stripeStamps[index]))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs writers in every branch of a ConcurrentTree, a writer moving nodes between
+ * branches and readers of the whole tree concurrently, then checks that no
+ * operation failed and that the tree and its counts are consistent.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class ConcurrentTreeStressTest
+{
+    private static final int BRANCHES = 8;
+    
+    private static final long DURATION = 3000;
+    
+    
+    public ConcurrentTreeStressTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        final ConcurrentTree<LinkedTree<String>, String> tree = new ConcurrentTree<LinkedTree<String>, String>(new LinkedTree<String>("Root"), 4);
+        final List<LinkedTree<String>> branches = new ArrayList<LinkedTree<String>>();
+        for (int i = 0; i < BRANCHES; i++)
+        {
+            branches.add(tree.addChild(tree.getRoot(), "Branch " + i));
+        }
+        
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final long end = System.currentTimeMillis() + DURATION;
+        List<Thread> threads = new ArrayList<Thread>();
+        
+        for (int i = 0; i < BRANCHES; i++)
+        {
+            final LinkedTree<String> branch = branches.get(i);
+            final int seed = i;
+            threads.add(new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    Random random = new Random(seed);
+                    List<LinkedTree<String>> added = new ArrayList<LinkedTree<String>>();
+                    while (System.currentTimeMillis() < end && failure.get() == null)
+                    {
+                        try
+                        {
+                            if (added.size() < 64 || random.nextBoolean())
+                            {
+                                LinkedTree<String> parent = added.isEmpty() || random.nextInt(4) == 0 ? branch : added.get(random.nextInt(added.size()));
+                                added.add(tree.addChild(parent, "Node " + random.nextInt(16)));
+                            } else
+                            {
+                                LinkedTree<String> node = added.get(random.nextInt(added.size()));
+                                if (random.nextBoolean())
+                                {
+                                    tree.setValue(node, "Node " + random.nextInt(16));
+                                } else
+                                {
+                                    tree.remove(node);
+                                    added.remove(node);
+                                }
+                            }
+                        } catch (IllegalArgumentException e)
+                        {
+                            // The node was removed with an ancestor or moved out of the tree.
+                        } catch (Throwable e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            }));
+        }
+        
+        // Moves nodes between the branches while the branch writers change them.
+        threads.add(new Thread(new Runnable()
+        {
+            public void run()
+            {
+                Random random = new Random();
+                while (System.currentTimeMillis() < end && failure.get() == null)
+                {
+                    try
+                    {
+                        LinkedTree<String> from = branches.get(random.nextInt(BRANCHES));
+                        List<LinkedTree<String>> children = tree.getChildren(from);
+                        if (!children.isEmpty())
+                        {
+                            LinkedTree<String> node = children.get(random.nextInt(children.size()));
+                            tree.remove(node);
+                            tree.add(branches.get(random.nextInt(BRANCHES)), node, Tree.LASTCHILD);
+                        }
+                    } catch (IllegalArgumentException e)
+                    {
+                        // The node was removed by a branch writer.
+                    } catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        }));
+        
+        for (int i = 0; i < 2; i++)
+        {
+            threads.add(new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    while (System.currentTimeMillis() < end && failure.get() == null)
+                    {
+                        try
+                        {
+                            LinkedTree<String> root = tree.getRoot();
+                            tree.traverse(root, new TraverseAction<LinkedTree<String>, String>()
+                            {
+                                public int action(LinkedTree<String> node, int level)
+                                {
+                                    return TraverseAction.CONTINUE;
+                                }
+                            });
+                            check(tree.getDescendants(root));
+                            if (tree.getDescendantCount(root) < BRANCHES)
+                            {
+                                throw new AssertionError("The root lost its branches");
+                            }
+                        } catch (Throwable e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            }));
+        }
+        
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        
+        if (failure.get() != null)
+        {
+            throw new AssertionError("A concurrent operation failed", failure.get());
+        }
+        
+        LinkedTree<String> root = tree.getRoot();
+        int count = tree.getDescendants(root).size();
+        if (tree.getDescendantCount(root) != count)
+        {
+            throw new AssertionError("The root counts " + tree.getDescendantCount(root) + " descendants but has " + count);
+        }
+        System.out.println("ConcurrentTreeStressTest passed, " + count + " nodes");
+    }
+    
+    
+    /**
+     * Checks that every node copied holds a value.
+     */
+    private static void check(List<LinkedTree<String>> nodes)
+    {
+        for (LinkedTree<String> node : nodes)
+        {
+            if (node == null || node.getValue() == null)
+            {
+                throw new AssertionError("A copied node is incomplete");
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package net.posick.tree;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * The DoubleLinkedTree is a LinkedTree holding an unboxed <code>double</code> value.
+ * The <code>Double</code> methods of the Tree interface remain available, the
+ * <code>double</code> methods avoid boxing the value.  Nodes always have a value, a
+ * null value is not permitted.  Values are compared as by
+ * <code>Double.equals</code>, so NaN values match.
+ * 
+ * @author Steve Posick
+ */
+@XmlRootElement(name = "DoubleLinkedTree")
+@XmlType(name="DoubleLinkedTree", propOrder = {"value"})
+@XmlAccessorType(XmlAccessType.NONE)
+public class DoubleLinkedTree extends AbstractTree<DoubleLinkedTree, Double>
+{
+    private static final long serialVersionUID = 201610161202L;
+    
+    @XmlElement(name="Value")
+    private double value;
+    
+    public DoubleLinkedTree()
+    {
+        super();
+    }
+    
+    
+    public DoubleLinkedTree(double value)
+    {
+        super();
+        this.value = value;
+    }
+    
+    
+    public DoubleLinkedTree(DoubleLinkedTree parent, double value)
+    {
+        super();
+        this.value = value;
+        setParent(parent);
+    }
+    
+    
+    public DoubleLinkedTree(List<Double> ancestors, double value)
+    {
+        super(ancestors, Double.valueOf(value));
+    }
+    
+    
+    @Override
+    public Double getValue()
+    {
+        return Double.valueOf(value);
+    }
+    
+    
+    @Override
+    public void setValue(Double value)
+    {
+        setDouble(value.doubleValue());
+    }
+    
+    
+    /**
+     * Returns the value of this node.
+     * 
+     * @return The value
+     */
+    public double getDouble()
+    {
+        return value;
+    }
+    
+    
+    /**
+     * Sets the value of this node.
+     * 
+     * @param value The value
+     */
+    public void setDouble(double value)
+    {
+        valueChanging();
+        double oldValue = this.value;
+        this.value = value;
+        if (isValueIndexed())
+        {
+            valueChanged(Double.valueOf(oldValue), Double.valueOf(value));
+        }
+    }
+    
+    
+    /**
+     * Adds a new node to the tree using this node as a reference point.
+     * 
+     * @param value The value for new node
+     * @param mode The node indicator, how the node will be added
+     * @return The node that was added to the Tree
+     */
+    public DoubleLinkedTree add(double value, int mode)
+    {
+        return add(new DoubleLinkedTree(value), mode);
+    }
+    
+    
+    /**
+     * Adds a new child node to the end of the list of children.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public DoubleLinkedTree addChild(double value)
+    {
+        return add(new DoubleLinkedTree(value), LASTCHILD);
+    }
+    
+    
+    /**
+     * Adds a new sibling node to the end of the list of siblings.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public DoubleLinkedTree addSibling(double value)
+    {
+        return add(new DoubleLinkedTree(value), LAST);
+    }
+    
+    
+    /**
+     * Returns the first child with the specified value.
+     * 
+     * @param value The value
+     * @return The child or null
+     */
+    public DoubleLinkedTree getChild(double value)
+    {
+        if (getChildCount() >= getChildIndexThreshold() && getChildIndexThreshold() > 0)
+        {
+            return getChild(Double.valueOf(value));
+        }
+        
+        for (DoubleLinkedTree node = getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (Double.doubleToLongBits(node.value) == Double.doubleToLongBits(value))
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns the first sibling with the specified value.
+     * 
+     * @param value The value
+     * @return The sibling or null
+     */
+    public DoubleLinkedTree getSibling(double value)
+    {
+        DoubleLinkedTree parent = getParent();
+        if (parent != null)
+        {
+            DoubleLinkedTree node = parent.getChild(value);
+            if (node != this)
+            {
+                return node;
+            }
+        }
+        
+        for (DoubleLinkedTree node : getSiblings())
+        {
+            if (Double.doubleToLongBits(node.value) == Double.doubleToLongBits(value))
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point, passing the values
+     * unboxed.
+     * 
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(final DoubleTraverseAction action)
+    {
+        traverse(new TraverseAction<DoubleLinkedTree, Double>()
+        {
+            public int action(DoubleLinkedTree node, int level)
+            {
+                return action.action(node, node.value, level);
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package net.posick.tree;
+
+/**
+ * The DoubleTraverseAction is the traversal action for DoubleLinkedTrees, the value of
+ * each node is passed unboxed.  The action codes are those defined by
+ * <code>TraverseAction</code>.
+ * 
+ * @author Steve Posick
+ * 
+ * @see TraverseAction
+ * @see DoubleLinkedTree
+ */
+public interface DoubleTraverseAction
+{
+    /**
+     * Fired for each node during traversal.
+     * 
+     * @param node The node
+     * @param value The value of the node
+     * @param level The level of the node, starting at 1
+     * @return The Action code.
+     */
+    public int action(DoubleLinkedTree node, double value, int level);
+}
@@ -0,0 +1,586 @@
+package net.posick.tree;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The IndexedTree is an abstract base class for Trees whose structure is stored
+ * in flat, index addressed storage rather than in linked node objects.  Each
+ * instance is a lightweight view of one node, identified by its index, nodes
+ * are created on demand as the Tree is navigated and are equal when they view
+ * the same index of the same storage.
+ * <p>
+ * Subclasses provide access to the links and values by index, an index of
+ * <code>-1</code> denotes no node.  The IndexedTree is read only, subclasses
+ * supporting modification override the mutator methods.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings("unchecked")
+public abstract class IndexedTree<T extends IndexedTree<T, V>, V> implements Tree<T, V>
+{
+    protected final int index;
+    
+    
+    /**
+     * Creates a view of the node at the specified index.
+     * 
+     * @param index The index of the node
+     */
+    protected IndexedTree(int index)
+    {
+        this.index = index;
+    }
+    
+    
+    /**
+     * Returns the storage viewed by this node, nodes are equal when they view the
+     * same index of the same storage.
+     * 
+     * @return The storage
+     */
+    protected abstract Object storage();
+    
+    
+    /**
+     * Returns the view of the node at the specified index.
+     * 
+     * @param index The index of the node
+     * @return The node or null if the index is -1
+     */
+    protected abstract T node(int index);
+    
+    
+    protected abstract int parentIndex(int index);
+    
+    
+    protected abstract int firstChildIndex(int index);
+    
+    
+    protected abstract int nextSiblingIndex(int index);
+    
+    
+    protected abstract int previousSiblingIndex(int index);
+    
+    
+    protected abstract V valueAt(int index);
+    
+    
+    /**
+     * Returns the number of children of the node at the specified index.
+     * Subclasses storing the count override this method.
+     * 
+     * @param index The index of the node
+     * @return The number of children
+     */
+    protected int childCount(int index)
+    {
+        int count = 0;
+        for (int child = firstChildIndex(index); child >= 0; child = nextSiblingIndex(child))
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    
+    /**
+     * Returns the number of descendants of the node at the specified index.
+     * Subclasses storing the count override this method.
+     * 
+     * @param index The index of the node
+     * @return The number of descendants
+     */
+    protected int descendantCount(int index)
+    {
+        int count = 0;
+        for (int node = nextInSubtree(index, index); node >= 0; node = nextInSubtree(index, node))
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    
+    /**
+     * Returns the index of the node following the specified node in preorder,
+     * within the subtree of the root.
+     * 
+     * @param root The index of the root of the subtree
+     * @param node The index of the current node
+     * @return The index of the next node or -1
+     */
+    protected int nextInSubtree(int root, int node)
+    {
+        int next = firstChildIndex(node);
+        while (next < 0 && node != root)
+        {
+            next = nextSiblingIndex(node);
+            node = parentIndex(node);
+        }
+        return next;
+    }
+    
+    
+    /**
+     * Returns the index of this node.
+     * 
+     * @return The index of this node
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getParent()
+     */
+    public T getParent()
+    {
+        return node(parentIndex(index));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getFirstChild()
+     */
+    public T getFirstChild()
+    {
+        return node(firstChildIndex(index));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getNextSibling()
+     */
+    public T getNextSibling()
+    {
+        return node(nextSiblingIndex(index));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getPreviousSibling()
+     */
+    public T getPreviousSibling()
+    {
+        return node(previousSiblingIndex(index));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getValue()
+     */
+    public V getValue()
+    {
+        return valueAt(index);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChild(V)
+     */
+    public T getChild(V value)
+    {
+        if (value != null)
+        {
+            for (int child = firstChildIndex(index); child >= 0; child = nextSiblingIndex(child))
+            {
+                if (value.equals(valueAt(child)))
+                {
+                    return node(child);
+                }
+            }
+        }
+        return null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSibling(V)
+     */
+    public T getSibling(V value)
+    {
+        if (value != null)
+        {
+            for (int sibling = firstSiblingIndex(index); sibling >= 0; sibling = nextSiblingIndex(sibling))
+            {
+                if (sibling != index && value.equals(valueAt(sibling)))
+                {
+                    return node(sibling);
+                }
+            }
+        }
+        return null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#hasChildren()
+     */
+    public boolean hasChildren()
+    {
+        return firstChildIndex(index) >= 0;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getDescendants()
+     */
+    public List<T> getDescendants()
+    {
+        return new IndexedTreeList(index, true);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChildren()
+     */
+    public List<T> getChildren()
+    {
+        return new IndexedTreeList(index, false);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSiblings()
+     */
+    public List<T> getSiblings()
+    {
+        return new IndexedTreeList(firstSiblingIndex(index), index);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getRoot()
+     */
+    public T getRoot()
+    {
+        int root = index;
+        for (int parent = parentIndex(root); parent >= 0; parent = parentIndex(parent))
+        {
+            root = parent;
+        }
+        return node(root);
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point.  The traverse action
+     * is executed for each node encountered.  The walk follows the stored indexes,
+     * only the nodes passed to the action are created.
+     * 
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(TraverseAction<T, V> action)
+    {
+        int node = index;
+        int level = 1;
+        
+        while (node >= 0)
+        {
+            int result = action.action(node(node), level);
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            }
+            
+            int next = result == TraverseAction.CONTINUE ? firstChildIndex(node) : -1;
+            if (next >= 0)
+            {
+                level++;
+            } else
+            {
+                while ((next = nextSiblingIndex(node)) < 0 && level > 1)
+                {
+                    node = parentIndex(node);
+                    level--;
+                }
+            }
+            node = next;
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setParent(T)
+     */
+    public void setParent(T parent)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setFirstChild(T)
+     */
+    public void setFirstChild(T child)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setNextSibling(T)
+     */
+    public void setNextSibling(T sibling)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setPreviousSibling(T)
+     */
+    public void setPreviousSibling(T sibling)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(T, int)
+     */
+    public T add(T newNode, int mode)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(V, int)
+     */
+    public T add(V value, int mode)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#replace(T)
+     */
+    public void replace(T newNode)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#remove()
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setValue(V)
+     */
+    public void setValue(V value)
+    {
+        throw new UnsupportedOperationException("Read only Tree");
+    }
+    
+    
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object object)
+    {
+        if (object instanceof IndexedTree)
+        {
+            IndexedTree<?, ?> that = (IndexedTree<?, ?>) object;
+            return that.index == index && that.storage() == storage();
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+        return System.identityHashCode(storage()) * 31 + index;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        final StringBuilder buffer = new StringBuilder();
+        
+        getRoot().traverse(new TraverseAction<T, V>()
+        {
+            public int action(T node, int level)
+            {
+                for (int index = 1; index < level; index++)
+                {
+                    buffer.append("\t");
+                }
+                buffer.append(node.getClass().getSimpleName()).append(" [").append(node.getValue()).append("]\n");
+                return TraverseAction.CONTINUE;
+            }
+        });
+        
+        return buffer.toString();
+    }
+    
+    
+    private int firstSiblingIndex(int node)
+    {
+        int parent = parentIndex(node);
+        if (parent >= 0)
+        {
+            return firstChildIndex(parent);
+        }
+        
+        for (int previous = previousSiblingIndex(node); previous >= 0; previous = previousSiblingIndex(previous))
+        {
+            node = previous;
+        }
+        return node;
+    }
+    
+    
+    /**
+     * The children, descendants or siblings of a node, walked by index.
+     */
+    protected class IndexedTreeList extends AbstractList<T>
+    {
+        private final int root;
+        
+        private final int first;
+        
+        private final int ignore;
+        
+        private final boolean recursive;
+        
+        
+        /**
+         * Creates the list of the children or descendants of the node.
+         * 
+         * @param root The index of the node
+         * @param recursive True for the descendants, false for the children
+         */
+        public IndexedTreeList(int root, boolean recursive)
+        {
+            this.root = root;
+            this.first = firstChildIndex(root);
+            this.ignore = -1;
+            this.recursive = recursive;
+        }
+        
+        
+        /**
+         * Creates the list of the siblings starting with the first sibling.
+         * 
+         * @param first The index of the first sibling
+         * @param ignore The index of the sibling to leave out
+         */
+        public IndexedTreeList(int first, int ignore)
+        {
+            this.root = parentIndex(first);
+            this.first = first;
+            this.ignore = ignore;
+            this.recursive = false;
+        }
+        
+        
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<T> iterator()
+        {
+            return new Iterator<T>()
+            {
+                private int next = skip(first);
+                
+                
+                public boolean hasNext()
+                {
+                    return next >= 0;
+                }
+                
+                
+                public T next()
+                {
+                    if (next < 0)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    
+                    int current = next;
+                    next = skip(recursive ? nextInSubtree(root, current) : nextSiblingIndex(current));
+                    return node(current);
+                }
+                
+                
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+        
+        
+        private int skip(int node)
+        {
+            return node >= 0 && node == ignore ? nextSiblingIndex(node) : node;
+        }
+        
+        
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size()
+        {
+            if (recursive)
+            {
+                return descendantCount(root);
+            } else if (root >= 0)
+            {
+                return childCount(root) - (ignore >= 0 ? 1 : 0);
+            }
+            
+            int count = 0;
+            for (int node = skip(first); node >= 0; node = skip(nextSiblingIndex(node)))
+            {
+                count++;
+            }
+            return count;
+        }
+        
+        
+        @Override
+        public T get(int index)
+        {
+            if (index >= 0)
+            {
+                int count = 0;
+                for (Iterator<T> iterator = iterator(); iterator.hasNext(); )
+                {
+                    T node = iterator.next();
+                    if (count++ == index)
+                    {
+                        return node;
+                    }
+                }
+            }
+            
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size() - 1));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package net.posick.tree;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * The IntLinkedTree is a LinkedTree holding an unboxed <code>int</code> value.
+ * The <code>Integer</code> methods of the Tree interface remain available, the
+ * <code>int</code> methods avoid boxing the value.  Nodes always have a value, a
+ * null value is not permitted.
+ * 
+ * @author Steve Posick
+ */
+@XmlRootElement(name = "IntLinkedTree")
+@XmlType(name="IntLinkedTree", propOrder = {"value"})
+@XmlAccessorType(XmlAccessType.NONE)
+public class IntLinkedTree extends AbstractTree<IntLinkedTree, Integer>
+{
+    private static final long serialVersionUID = 201610161200L;
+    
+    @XmlElement(name="Value")
+    private int value;
+    
+    public IntLinkedTree()
+    {
+        super();
+    }
+    
+    
+    public IntLinkedTree(int value)
+    {
+        super();
+        this.value = value;
+    }
+    
+    
+    public IntLinkedTree(IntLinkedTree parent, int value)
+    {
+        super();
+        this.value = value;
+        setParent(parent);
+    }
+    
+    
+    public IntLinkedTree(List<Integer> ancestors, int value)
+    {
+        super(ancestors, Integer.valueOf(value));
+    }
+    
+    
+    @Override
+    public Integer getValue()
+    {
+        return Integer.valueOf(value);
+    }
+    
+    
+    @Override
+    public void setValue(Integer value)
+    {
+        setInt(value.intValue());
+    }
+    
+    
+    /**
+     * Returns the value of this node.
+     * 
+     * @return The value
+     */
+    public int getInt()
+    {
+        return value;
+    }
+    
+    
+    /**
+     * Sets the value of this node.
+     * 
+     * @param value The value
+     */
+    public void setInt(int value)
+    {
+        valueChanging();
+        int oldValue = this.value;
+        this.value = value;
+        if (isValueIndexed())
+        {
+            valueChanged(Integer.valueOf(oldValue), Integer.valueOf(value));
+        }
+    }
+    
+    
+    /**
+     * Adds a new node to the tree using this node as a reference point.
+     * 
+     * @param value The value for new node
+     * @param mode The node indicator, how the node will be added
+     * @return The node that was added to the Tree
+     */
+    public IntLinkedTree add(int value, int mode)
+    {
+        return add(new IntLinkedTree(value), mode);
+    }
+    
+    
+    /**
+     * Adds a new child node to the end of the list of children.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public IntLinkedTree addChild(int value)
+    {
+        return add(new IntLinkedTree(value), LASTCHILD);
+    }
+    
+    
+    /**
+     * Adds a new sibling node to the end of the list of siblings.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public IntLinkedTree addSibling(int value)
+    {
+        return add(new IntLinkedTree(value), LAST);
+    }
+    
+    
+    /**
+     * Returns the first child with the specified value.
+     * 
+     * @param value The value
+     * @return The child or null
+     */
+    public IntLinkedTree getChild(int value)
+    {
+        if (getChildCount() >= getChildIndexThreshold() && getChildIndexThreshold() > 0)
+        {
+            return getChild(Integer.valueOf(value));
+        }
+        
+        for (IntLinkedTree node = getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node.value == value)
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns the first sibling with the specified value.
+     * 
+     * @param value The value
+     * @return The sibling or null
+     */
+    public IntLinkedTree getSibling(int value)
+    {
+        IntLinkedTree parent = getParent();
+        if (parent != null)
+        {
+            IntLinkedTree node = parent.getChild(value);
+            if (node != this)
+            {
+                return node;
+            }
+        }
+        
+        for (IntLinkedTree node : getSiblings())
+        {
+            if (node.value == value)
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point, passing the values
+     * unboxed.
+     * 
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(final IntTraverseAction action)
+    {
+        traverse(new TraverseAction<IntLinkedTree, Integer>()
+        {
+            public int action(IntLinkedTree node, int level)
+            {
+                return action.action(node, node.value, level);
+            }
+        });
+    }
+}
@@ -0,0 +1,509 @@
+package net.posick.tree;
+
+/**
+ * The IntervalIndex labels the nodes of a tree with nested intervals, the enter
+ * and exit numbers of a preorder walk, so that the interval of a node contains the
+ * intervals of its descendants.  Whether a node is the ancestor of another is
+ * then a comparison of their labels, and the depth of a node is held in its label.
+ * <p>
+ * The labels are spread over the range of a long leaving gaps between them, a
+ * node added to the tree is labelled within the gap between the labels before and
+ * after it, nodes removed from the tree lose their labels.  When a gap is too
+ * small the labels around it are relabelled evenly, from the smallest aligned
+ * range of labels holding the gap whose density is below the threshold of its
+ * size.  The thresholds fall as the ranges grow, so a relabelled range leaves room
+ * in proportion to its size and the cost of relabelling is amortized over the
+ * nodes added.  Setting the links of an indexed node directly invalidates the
+ * index, which is then no longer used.
+ * <p>
+ * Each label also holds a jump pointer to an ancestor, chosen from the jump
+ * pointer of the parent so that the jumps skip levels in a skew binary pattern.
+ * Following the jumps finds the ancestor at a depth, and with the constant time
+ * ancestor test the lowest common ancestor of two nodes, in logarithmic time.
+ *
+ * @author Steve Posick
+ * @see AbstractTree#indexIntervals()
+ */
+@SuppressWarnings("rawtypes")
+public class IntervalIndex
+{
+    /**
+     * The level of the range holding every label, labels lie between 0 and
+     * 2<sup>TOP_LEVEL</sup>.
+     */
+    private static final int TOP_LEVEL = 62;
+    
+    /**
+     * The greatest number of labels held by the range of labels of each level
+     * that is relabelled, 2<sup>level</sup> / 1.4<sup>level</sup>.
+     */
+    private static final long[] THRESHOLDS = new long[TOP_LEVEL + 1];
+    
+    static
+    {
+        for (int level = 0; level <= TOP_LEVEL; level++)
+        {
+            THRESHOLDS[level] = (long) Math.pow(2.0 / 1.4, level);
+        }
+    }
+    
+    private final AbstractTree root;
+    
+    private volatile boolean valid = true;
+    
+    
+    /**
+     * Creates the index, labelling the tree of the root node.
+     */
+    IntervalIndex(AbstractTree root)
+    {
+        this.root = root;
+        long count = 2L * (1 + root.getDescendantCount());
+        relabel(new Cursor(root, false), count, 0, (1L << TOP_LEVEL) / (count + 1));
+    }
+    
+    
+    /**
+     * The interval of a node.
+     */
+    static final class Label
+    {
+        final IntervalIndex index;
+        
+        long enter;
+        
+        long exit;
+        
+        int depth;
+        
+        AbstractTree jump;
+        
+        
+        private Label(IntervalIndex index)
+        {
+            this.index = index;
+        }
+    }
+    
+    
+    /**
+     * Returns the root node of the indexed tree.
+     *
+     * @return The root node
+     */
+    public AbstractTree getRoot()
+    {
+        return root;
+    }
+    
+    
+    /**
+     * Returns true if the index is in step with the tree.  The index becomes
+     * invalid when the links of an indexed node are set directly or a parent is
+     * added above the root.
+     *
+     * @return True if the index is valid
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+    
+    
+    /**
+     * Returns the enter number of the node, the start of its interval.
+     *
+     * @param node The node
+     * @return The enter number
+     * @throws IllegalArgumentException If the node is not labelled by this index
+     */
+    public long getEnter(AbstractTree node)
+    {
+        return labelOf(node).enter;
+    }
+    
+    
+    /**
+     * Returns the exit number of the node, the end of its interval.  The enter
+     * numbers of the descendants of the node lie between its enter and exit numbers.
+     *
+     * @param node The node
+     * @return The exit number
+     * @throws IllegalArgumentException If the node is not labelled by this index
+     */
+    public long getExit(AbstractTree node)
+    {
+        return labelOf(node).exit;
+    }
+    
+    
+    /**
+     * Returns true if the node is the ancestor of the descendant.
+     *
+     * @param node The node
+     * @param descendant The possible descendant
+     * @return True if the node is an ancestor of the descendant
+     * @throws IllegalArgumentException If a node is not labelled by this index
+     */
+    public boolean contains(AbstractTree node, AbstractTree descendant)
+    {
+        Label label = labelOf(node);
+        Label other = labelOf(descendant);
+        return label.enter < other.enter && other.exit < label.exit;
+    }
+    
+    
+    /**
+     * Returns the ancestor of the node at the depth, the node itself at its own
+     * depth.
+     *
+     * @param node The node
+     * @param depth The depth of the ancestor, the root node has a depth of 0
+     * @return The ancestor or null if the depth is greater than the depth of the node
+     * @throws IllegalArgumentException If the node is not labelled by this index
+     */
+    public AbstractTree getAncestor(AbstractTree node, int depth)
+    {
+        Label label = labelOf(node);
+        if (depth < 0 || depth > label.depth)
+        {
+            return null;
+        }
+        
+        AbstractTree current = node;
+        while (label.depth > depth)
+        {
+            Label jump = AbstractTree.intervalOf(label.jump);
+            current = jump.depth >= depth ? label.jump : current.getParent();
+            label = AbstractTree.intervalOf(current);
+        }
+        return current;
+    }
+    
+    
+    /**
+     * Returns the lowest common ancestor of the nodes, the deepest node that is
+     * either node or an ancestor of both nodes.
+     *
+     * @param node The node
+     * @param other The other node
+     * @return The lowest common ancestor
+     * @throws IllegalArgumentException If a node is not labelled by this index
+     */
+    public AbstractTree getCommonAncestor(AbstractTree node, AbstractTree other)
+    {
+        Label label = labelOf(node);
+        Label target = labelOf(other);
+        if (encloses(label, target))
+        {
+            return node;
+        }
+        
+        // Climb from the node while its ancestors do not enclose the other node.
+        AbstractTree current = node;
+        while (true)
+        {
+            AbstractTree parent = current.getParent();
+            if (encloses(AbstractTree.intervalOf(parent), target))
+            {
+                return parent;
+            }
+            current = encloses(AbstractTree.intervalOf(label.jump), target) ? parent : label.jump;
+            label = AbstractTree.intervalOf(current);
+        }
+    }
+    
+    
+    private static boolean encloses(Label label, Label other)
+    {
+        return label.enter <= other.enter && other.exit <= label.exit;
+    }
+    
+    
+    private Label labelOf(AbstractTree node)
+    {
+        Label label = AbstractTree.intervalOf(node);
+        if (label == null || label.index != this || !valid)
+        {
+            throw new IllegalArgumentException("The node is not labelled by a valid interval index");
+        }
+        return label;
+    }
+    
+    
+    /**
+     * Removes the labels from the tree and stops maintaining them.
+     */
+    public void detach()
+    {
+        valid = false;
+        clear(root);
+    }
+    
+    
+    void invalidate()
+    {
+        valid = false;
+    }
+    
+    
+    /**
+     * Labels a node that was linked beneath an indexed parent, within the gap
+     * between the labels before and after it or by relabelling the labels around
+     * the gap.  The index is invalidated if the labels around the node are missing
+     * or every label is taken.
+     */
+    void linked(AbstractTree node)
+    {
+        Cursor before = new Cursor(node, false);
+        Cursor after = new Cursor(node, true);
+        if (!before.previous() || !after.next() || !before.isLabelled() || !after.isLabelled())
+        {
+            valid = false;
+            return;
+        }
+        
+        long low = before.label();
+        long high = after.label();
+        long count = 2L * (1 + node.getDescendantCount());
+        if (high - low > count)
+        {
+            relabel(new Cursor(node, false), count, low, (high - low) / (count + 1));
+            return;
+        }
+        
+        // Widen the range around the gap, counting its labels, until its density
+        // is below the threshold of its level.
+        count++;
+        boolean more = true;
+        for (int level = 1; level <= TOP_LEVEL; level++)
+        {
+            long size = 1L << level;
+            long start = low & -size;
+            while (before.previous())
+            {
+                if (!before.isLabelled())
+                {
+                    valid = false;
+                    return;
+                } else if (before.label() < start)
+                {
+                    before.next();
+                    break;
+                }
+                count++;
+            }
+            while (more && after.label() < start + size)
+            {
+                count++;
+                more = after.next();
+                if (more && !after.isLabelled())
+                {
+                    valid = false;
+                    return;
+                }
+            }
+            
+            if (count < size && (count <= THRESHOLDS[level] || level == TOP_LEVEL))
+            {
+                relabel(before, count, start - 1, size / (count + 1));
+                return;
+            }
+        }
+        valid = false;
+    }
+    
+    
+    /**
+     * Removes the labels of a node that is being unlinked and its descendants.
+     */
+    void unlinking(AbstractTree node)
+    {
+        clear(node);
+    }
+    
+    
+    /**
+     * Labels the enter and exit numbers from the cursor on evenly, labelling the
+     * nodes that have no label.
+     *
+     * @param cursor The first enter or exit number to label
+     * @param count The number of enter and exit numbers labelled
+     * @param low The label before the first label
+     * @param step The distance between the labels
+     */
+    private void relabel(Cursor cursor, long count, long low, long step)
+    {
+        long position = low;
+        for (long index = 0; index < count; index++)
+        {
+            AbstractTree current = cursor.node;
+            Label label = AbstractTree.intervalOf(current);
+            if (cursor.exit)
+            {
+                label.exit = position += step;
+            } else
+            {
+                if (label == null || label.index != this)
+                {
+                    label = new Label(this);
+                    label.depth = current == root ? 0 : AbstractTree.intervalOf(current.getParent()).depth + 1;
+                    AbstractTree.setInterval(current, label);
+                    label.jump = jumpOf(current);
+                }
+                label.enter = position += step;
+            }
+            cursor.next();
+        }
+    }
+    
+    
+    /**
+     * A position in the preorder walk of the indexed tree, the enter or exit of a
+     * node, moved to the enter or exit before or after it.
+     */
+    private final class Cursor
+    {
+        private AbstractTree node;
+        
+        private boolean exit;
+        
+        
+        private Cursor(AbstractTree node, boolean exit)
+        {
+            this.node = node;
+            this.exit = exit;
+        }
+        
+        
+        /**
+         * Moves to the following enter or exit, returning false at the exit of the
+         * root node.
+         */
+        private boolean next()
+        {
+            if (!exit)
+            {
+                AbstractTree child = node.getFirstChild();
+                if (child != null)
+                {
+                    node = child;
+                } else
+                {
+                    exit = true;
+                }
+            } else if (node == root)
+            {
+                return false;
+            } else
+            {
+                AbstractTree sibling = node.getNextSibling();
+                if (sibling != null)
+                {
+                    node = sibling;
+                    exit = false;
+                } else
+                {
+                    node = node.getParent();
+                }
+            }
+            return true;
+        }
+        
+        
+        /**
+         * Moves to the preceding enter or exit, returning false at the enter of
+         * the root node.
+         */
+        private boolean previous()
+        {
+            if (exit)
+            {
+                AbstractTree child = node.getLastChild();
+                if (child != null)
+                {
+                    node = child;
+                } else
+                {
+                    exit = false;
+                }
+            } else if (node == root)
+            {
+                return false;
+            } else
+            {
+                AbstractTree sibling = AbstractTree.previousSiblingOf(node);
+                if (sibling != null)
+                {
+                    node = sibling;
+                    exit = true;
+                } else
+                {
+                    node = node.getParent();
+                }
+            }
+            return true;
+        }
+        
+        
+        private boolean isLabelled()
+        {
+            Label label = AbstractTree.intervalOf(node);
+            return label != null && label.index == IntervalIndex.this;
+        }
+        
+        
+        private long label()
+        {
+            Label label = AbstractTree.intervalOf(node);
+            return exit ? label.exit : label.enter;
+        }
+    }
+    
+    
+    /**
+     * Returns the jump pointer of a node whose parent is labelled.  The jump skips
+     * to the jump of the parent's jump when the parent's jump spans as many levels
+     * as that jump does, otherwise it is the parent.
+     */
+    private AbstractTree jumpOf(AbstractTree node)
+    {
+        if (node == root)
+        {
+            return node;
+        }
+        
+        AbstractTree parent = node.getParent();
+        Label label = AbstractTree.intervalOf(parent);
+        Label jump = AbstractTree.intervalOf(label.jump);
+        Label skip = AbstractTree.intervalOf(jump.jump);
+        return label.depth - jump.depth == jump.depth - skip.depth ? jump.jump : parent;
+    }
+    
+    
+    /**
+     * Removes the labels of this index from the node and its descendants.
+     */
+    private void clear(AbstractTree node)
+    {
+        for (AbstractTree current = node; current != null; )
+        {
+            Label label = AbstractTree.intervalOf(current);
+            if (label != null && label.index == this)
+            {
+                AbstractTree.setInterval(current, null);
+            }
+            
+            AbstractTree next = current.getFirstChild();
+            while (next == null && current != node)
+            {
+                next = current.getNextSibling();
+                if (next == null)
+                {
+                    current = current.getParent();
+                }
+            }
+            current = next;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds indexed trees by appending chains, children and front siblings, then
+ * changes a tree at random and checks the ancestor tests, depths and ancestors of
+ * the interval index against the parent links.
+ *
+ * @author Steve Posick
+ */
+public class IntervalIndexTest
+{
+    private static final int NODES = 100000;
+    
+    private static final long TIME_LIMIT = 5000;
+    
+    
+    public IntervalIndexTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        // Relabelling is amortized, so building a deep chain is not quadratic.
+        long start = System.currentTimeMillis();
+        LinkedTree<String> root = new LinkedTree<String>("Root");
+        IntervalIndex index = root.indexIntervals();
+        LinkedTree<String> node = root;
+        for (int i = 0; i < NODES; i++)
+        {
+            node = node.addChild("Chain " + i);
+        }
+        check(index.isValid() && index.contains(root, node) && node.getDepth() == NODES, "chain");
+        
+        for (int i = 0; i < NODES; i++)
+        {
+            root.addChild("Child " + i);
+        }
+        LinkedTree<String> first = root.getFirstChild();
+        for (int i = 0; i < NODES; i++)
+        {
+            first = first.add("Front " + i, Tree.PREVIOUS);
+        }
+        check(index.isValid() && index.getEnter(first) < index.getEnter(first.getNextSibling()), "siblings");
+        long elapsed = System.currentTimeMillis() - start;
+        check(elapsed < TIME_LIMIT, "indexing " + 3 * NODES + " nodes took " + elapsed + "ms");
+        
+        Random random = new Random(1);
+        root = new LinkedTree<String>("Root");
+        index = root.indexIntervals();
+        List<LinkedTree<String>> nodes = new ArrayList<LinkedTree<String>>();
+        nodes.add(root);
+        for (int i = 0; i < 20000; i++)
+        {
+            LinkedTree<String> parent = nodes.get(random.nextInt(nodes.size()));
+            if (parent == root || random.nextBoolean())
+            {
+                nodes.add(parent.addChild("Node " + i));
+            } else
+            {
+                nodes.add(parent.add("Node " + i, random.nextBoolean() ? Tree.NEXT : Tree.PREVIOUS));
+            }
+            if (i % 500 == 499)
+            {
+                nodes.get(1 + random.nextInt(nodes.size() - 1)).remove();
+                nodes = new ArrayList<LinkedTree<String>>(root.getDescendants());
+                nodes.add(root);
+            }
+        }
+        check(index.isValid(), "the index was invalidated");
+        for (int i = 0; i < 20000; i++)
+        {
+            LinkedTree<String> a = nodes.get(random.nextInt(nodes.size()));
+            LinkedTree<String> b = nodes.get(random.nextInt(nodes.size()));
+            int depth = 0;
+            boolean ancestor = false;
+            for (LinkedTree<String> parent = b.getParent(); parent != null; parent = parent.getParent())
+            {
+                ancestor |= parent == a;
+                depth++;
+            }
+            check(index.contains(a, b) == ancestor, "contains");
+            check(b.getDepth() == depth, "depth");
+            LinkedTree<String> expected = b;
+            for (int level = depth; level > depth / 2; level--)
+            {
+                expected = expected.getParent();
+            }
+            check(b.getAncestor(depth / 2) == expected, "ancestor");
+        }
+        
+        // Setting the links directly invalidates the index rather than failing.
+        nodes.get(1).setNextSibling(new LinkedTree<String>("Direct"));
+        check(!index.isValid(), "the index is valid after the links were set directly");
+        root.addChild("After");
+        
+        System.out.println("IntervalIndexTest passed");
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
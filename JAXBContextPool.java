@@ -0,0 +1,114 @@
+package net.posick.tree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Caches a JAXBContext for each set of classes and pools the Marshallers and
+ * Unmarshallers created from it.  JAXBContexts are thread safe and expensive to
+ * create, Marshallers and Unmarshallers are not thread safe, so each is used by
+ * a single thread at a time and returned to the pool after use.
+ */
+final class JAXBContextPool
+{
+    private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    
+    private static final ConcurrentHashMap<Set<Class<?>>, JAXBContextPool> POOLS = new ConcurrentHashMap<Set<Class<?>>, JAXBContextPool>();
+    
+    private final JAXBContext context;
+    
+    private final ArrayBlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<Marshaller>(POOL_SIZE);
+    
+    private final ArrayBlockingQueue<Unmarshaller> unmarshallers = new ArrayBlockingQueue<Unmarshaller>(POOL_SIZE);
+    
+    
+    private JAXBContextPool(JAXBContext context)
+    {
+        this.context = context;
+    }
+    
+    
+    /**
+     * Returns the pool for the specified set of classes, creating the JAXBContext
+     * on first use.
+     * 
+     * @param classes The JAXB Classes
+     * @return The pool for the set of classes
+     * @throws JAXBException
+     */
+    public static JAXBContextPool getPool(Class<?>... classes)
+    throws JAXBException
+    {
+        Set<Class<?>> key = classes.length == 1 ? Collections.<Class<?>>singleton(classes[0]) : new HashSet<Class<?>>(Arrays.asList(classes));
+        JAXBContextPool pool = POOLS.get(key);
+        if (pool == null)
+        {
+            pool = new JAXBContextPool(JAXBContext.newInstance(classes));
+            JAXBContextPool existing = POOLS.putIfAbsent(key, pool);
+            if (existing != null)
+            {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+    
+    
+    /**
+     * Takes a Marshaller from the pool, creating one if the pool is empty.
+     * 
+     * @return The Marshaller
+     * @throws JAXBException
+     */
+    public Marshaller acquireMarshaller()
+    throws JAXBException
+    {
+        Marshaller marshaller = marshallers.poll();
+        return marshaller != null ? marshaller : context.createMarshaller();
+    }
+    
+    
+    /**
+     * Returns a Marshaller to the pool.
+     * 
+     * @param marshaller The Marshaller
+     */
+    public void releaseMarshaller(Marshaller marshaller)
+    {
+        marshallers.offer(marshaller);
+    }
+    
+    
+    /**
+     * Takes an Unmarshaller from the pool, creating one if the pool is empty.
+     * 
+     * @return The Unmarshaller
+     * @throws JAXBException
+     */
+    public Unmarshaller acquireUnmarshaller()
+    throws JAXBException
+    {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        return unmarshaller != null ? unmarshaller : context.createUnmarshaller();
+    }
+    
+    
+    /**
+     * Returns an Unmarshaller to the pool.
+     * 
+     * @param unmarshaller The Unmarshaller
+     */
+    public void releaseUnmarshaller(Unmarshaller unmarshaller)
+    {
+        unmarshallers.offer(unmarshaller);
+    }
+}
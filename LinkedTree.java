@@ -52,6 +52,9 @@ public class LinkedTree<V> extends AbstractTree<LinkedTree<V>, V>
     @Override
     public void setValue(V value)
     {
+        valueChanging();
+        V oldValue = this.value;
         this.value = value;
+        valueChanged(oldValue, value);
     }
 }
@@ -0,0 +1,204 @@
+package net.posick.tree;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * The LongLinkedTree is a LinkedTree holding an unboxed <code>long</code> value.
+ * The <code>Long</code> methods of the Tree interface remain available, the
+ * <code>long</code> methods avoid boxing the value.  Nodes always have a value, a
+ * null value is not permitted.
+ * 
+ * @author Steve Posick
+ */
+@XmlRootElement(name = "LongLinkedTree")
+@XmlType(name="LongLinkedTree", propOrder = {"value"})
+@XmlAccessorType(XmlAccessType.NONE)
+public class LongLinkedTree extends AbstractTree<LongLinkedTree, Long>
+{
+    private static final long serialVersionUID = 201610161201L;
+    
+    @XmlElement(name="Value")
+    private long value;
+    
+    public LongLinkedTree()
+    {
+        super();
+    }
+    
+    
+    public LongLinkedTree(long value)
+    {
+        super();
+        this.value = value;
+    }
+    
+    
+    public LongLinkedTree(LongLinkedTree parent, long value)
+    {
+        super();
+        this.value = value;
+        setParent(parent);
+    }
+    
+    
+    public LongLinkedTree(List<Long> ancestors, long value)
+    {
+        super(ancestors, Long.valueOf(value));
+    }
+    
+    
+    @Override
+    public Long getValue()
+    {
+        return Long.valueOf(value);
+    }
+    
+    
+    @Override
+    public void setValue(Long value)
+    {
+        setLong(value.longValue());
+    }
+    
+    
+    /**
+     * Returns the value of this node.
+     * 
+     * @return The value
+     */
+    public long getLong()
+    {
+        return value;
+    }
+    
+    
+    /**
+     * Sets the value of this node.
+     * 
+     * @param value The value
+     */
+    public void setLong(long value)
+    {
+        valueChanging();
+        long oldValue = this.value;
+        this.value = value;
+        if (isValueIndexed())
+        {
+            valueChanged(Long.valueOf(oldValue), Long.valueOf(value));
+        }
+    }
+    
+    
+    /**
+     * Adds a new node to the tree using this node as a reference point.
+     * 
+     * @param value The value for new node
+     * @param mode The node indicator, how the node will be added
+     * @return The node that was added to the Tree
+     */
+    public LongLinkedTree add(long value, int mode)
+    {
+        return add(new LongLinkedTree(value), mode);
+    }
+    
+    
+    /**
+     * Adds a new child node to the end of the list of children.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public LongLinkedTree addChild(long value)
+    {
+        return add(new LongLinkedTree(value), LASTCHILD);
+    }
+    
+    
+    /**
+     * Adds a new sibling node to the end of the list of siblings.
+     * 
+     * @param value The value for new node
+     * @return The node that was added to the Tree
+     */
+    public LongLinkedTree addSibling(long value)
+    {
+        return add(new LongLinkedTree(value), LAST);
+    }
+    
+    
+    /**
+     * Returns the first child with the specified value.
+     * 
+     * @param value The value
+     * @return The child or null
+     */
+    public LongLinkedTree getChild(long value)
+    {
+        if (getChildCount() >= getChildIndexThreshold() && getChildIndexThreshold() > 0)
+        {
+            return getChild(Long.valueOf(value));
+        }
+        
+        for (LongLinkedTree node = getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node.value == value)
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Returns the first sibling with the specified value.
+     * 
+     * @param value The value
+     * @return The sibling or null
+     */
+    public LongLinkedTree getSibling(long value)
+    {
+        LongLinkedTree parent = getParent();
+        if (parent != null)
+        {
+            LongLinkedTree node = parent.getChild(value);
+            if (node != this)
+            {
+                return node;
+            }
+        }
+        
+        for (LongLinkedTree node : getSiblings())
+        {
+            if (node.value == value)
+            {
+                return node;
+            }
+        }
+        return null;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point, passing the values
+     * unboxed.
+     * 
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(final LongTraverseAction action)
+    {
+        traverse(new TraverseAction<LongLinkedTree, Long>()
+        {
+            public int action(LongLinkedTree node, int level)
+            {
+                return action.action(node, node.value, level);
+            }
+        });
+    }
+}
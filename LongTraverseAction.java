@@ -0,0 +1,24 @@
+package net.posick.tree;
+
+/**
+ * The LongTraverseAction is the traversal action for LongLinkedTrees, the value of
+ * each node is passed unboxed.  The action codes are those defined by
+ * <code>TraverseAction</code>.
+ * 
+ * @author Steve Posick
+ * 
+ * @see TraverseAction
+ * @see LongLinkedTree
+ */
+public interface LongTraverseAction
+{
+    /**
+     * Fired for each node during traversal.
+     * 
+     * @param node The node
+     * @param value The value of the node
+     * @param level The level of the node, starting at 1
+     * @return The Action code.
+     */
+    public int action(LongLinkedTree node, long value, int level);
+}
@@ -0,0 +1,560 @@
+package net.posick.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedTree is a read only Tree backed by a memory mapped file.  The file
+ * holds a fixed size record for each node in preorder, followed by the encoded
+ * values.  Opening a file maps it without reading it, nodes are created as the
+ * Tree is navigated and values are decoded when requested, so very large Trees
+ * are opened in constant time and only the pages visited are loaded.
+ * <p>
+ * <pre>
+ *   int     magic "LTRM"
+ *   int     version
+ *   int     number of nodes
+ *   int     record size
+ *   long    offset of the values
+ *   long    reserved
+ *   record* int parent, int previous, int next, int descendants, int children,
+ *           int reserved, long offset of the value or -1
+ *   value*  value encoded by the ValueCodec
+ * </pre>
+ * Links are record indexes, -1 denotes no node.  The file is mapped in segments
+ * of 1GB, records and values never span segments, so Trees larger than 2GB are
+ * supported.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <V> The value contained within the Tree node
+ */
+public class MappedTree<V> extends IndexedTree<MappedTree<V>, V>
+{
+    static final int MAGIC = 0x4C54524D;
+    
+    static final int VERSION = 1;
+    
+    static final int HEADER_SIZE = 32;
+    
+    static final int RECORD_SIZE = 32;
+    
+    private static final int SEGMENT_SHIFT = 30;
+    
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    
+    private static final int PARENT = 0;
+    
+    private static final int PREVIOUS = 4;
+    
+    private static final int NEXT = 8;
+    
+    private static final int DESCENDANTS = 12;
+    
+    private static final int CHILDREN = 16;
+    
+    private static final int VALUE = 24;
+    
+    private final Storage<V> storage;
+    
+    
+    private MappedTree(Storage<V> storage, int index)
+    {
+        super(index);
+        this.storage = storage;
+    }
+    
+    
+    /**
+     * Opens a Tree file written by <code>write</code>, returning the root node.
+     * 
+     * @param file The Tree file
+     * @param codec The codec used to decode the values
+     * @return The root node
+     * @throws IOException If the file cannot be mapped or is not a Tree file
+     */
+    public static <V> MappedTree<V> open(Path file, ValueCodec<? extends V> codec)
+    throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            MappedByteBuffer[] segments = map(channel, MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_SIZE || segments[0].getInt(0) != MAGIC)
+            {
+                throw new IOException("File \"" + file + "\" is not a mapped Tree file");
+            } else if (segments[0].getInt(4) != VERSION || segments[0].getInt(12) != RECORD_SIZE)
+            {
+                throw new IOException("Mapped Tree file version " + segments[0].getInt(4) + " is not supported");
+            }
+            
+            int count = segments[0].getInt(8);
+            if (count <= 0 || HEADER_SIZE + (long) count * RECORD_SIZE > channel.size())
+            {
+                throw new IOException("Mapped Tree file \"" + file + "\" is truncated");
+            }
+            
+            return new MappedTree<V>(new Storage<V>(segments, count, codec), 0);
+        } finally
+        {
+            channel.close();
+        }
+    }
+    
+    
+    /**
+     * Writes the tree to a file that can be opened as a MappedTree.  The root node
+     * and its descendants are written, the siblings of the root node are not.  The
+     * Tree is walked iteratively, so neither deep trees nor long sibling chains
+     * are limited by the stack.
+     * 
+     * @param tree The root node of the tree
+     * @param file The Tree file, replaced if it exists
+     * @param codec The codec used to encode the values
+     * @throws IOException
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static <V> void write(Tree<?, V> tree, Path file, ValueCodec<? super V> codec)
+    throws IOException
+    {
+        int count = TreeBinaryWriter.countNodes(tree);
+        long valuesOffset = HEADER_SIZE + (long) count * RECORD_SIZE;
+        
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            MappedByteBuffer[] segments = map(channel, MapMode.READ_WRITE, 0, valuesOffset);
+            segments[0].putInt(0, MAGIC);
+            segments[0].putInt(4, VERSION);
+            segments[0].putInt(8, count);
+            segments[0].putInt(12, RECORD_SIZE);
+            segments[0].putLong(16, valuesOffset);
+            
+            channel.position(valuesOffset);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream encoder = new DataOutputStream(bytes);
+            long position = valuesOffset;
+            
+            int next = 0;
+            int parent = -1;
+            int previous = -1;
+            int depth = 0;
+            Tree node = tree;
+            while (node != null)
+            {
+                int index = next++;
+                long record = HEADER_SIZE + (long) index * RECORD_SIZE;
+                long offset = -1;
+                
+                V value = (V) node.getValue();
+                if (value != null)
+                {
+                    bytes.reset();
+                    codec.write(encoder, value);
+                    encoder.flush();
+                    if (bytes.size() > SEGMENT_SIZE)
+                    {
+                        throw new IOException("Value of node " + index + " is larger than " + SEGMENT_SIZE + " bytes");
+                    } else if (bytes.size() > 0 && (position >>> SEGMENT_SHIFT) != ((position + bytes.size() - 1) >>> SEGMENT_SHIFT))
+                    {
+                        // values never span segments, pad to the start of the next segment
+                        for (long end = ((position >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT; position < end; position++)
+                        {
+                            out.write(0);
+                        }
+                    }
+                    offset = position;
+                    bytes.writeTo(out);
+                    position += bytes.size();
+                }
+                
+                putInt(segments, record + PARENT, parent);
+                putInt(segments, record + PREVIOUS, previous);
+                putInt(segments, record + NEXT, -1);
+                putInt(segments, record + DESCENDANTS, 0);
+                putInt(segments, record + CHILDREN, 0);
+                putLong(segments, record + VALUE, offset);
+                if (previous >= 0)
+                {
+                    putInt(segments, HEADER_SIZE + (long) previous * RECORD_SIZE + NEXT, index);
+                }
+                if (parent >= 0)
+                {
+                    long parentRecord = HEADER_SIZE + (long) parent * RECORD_SIZE;
+                    putInt(segments, parentRecord + CHILDREN, getInt(segments, parentRecord + CHILDREN) + 1);
+                }
+                
+                if (node.getFirstChild() != null)
+                {
+                    parent = index;
+                    previous = -1;
+                    node = node.getFirstChild();
+                    depth++;
+                    continue;
+                }
+                
+                // close the completed subtrees, then move to the next sibling
+                while (true)
+                {
+                    record = HEADER_SIZE + (long) index * RECORD_SIZE;
+                    putInt(segments, record + DESCENDANTS, next - index - 1);
+                    if (depth == 0)
+                    {
+                        node = null;
+                        break;
+                    } else if (node.getNextSibling() != null)
+                    {
+                        node = node.getNextSibling();
+                        previous = index;
+                        parent = getInt(segments, record + PARENT);
+                        break;
+                    }
+                    node = node.getParent();
+                    depth--;
+                    index = getInt(segments, record + PARENT);
+                }
+            }
+            
+            out.flush();
+            for (MappedByteBuffer segment : segments)
+            {
+                segment.force();
+            }
+        } finally
+        {
+            channel.close();
+        }
+    }
+    
+    
+    private static MappedByteBuffer[] map(FileChannel channel, MapMode mode, long position, long size)
+    throws IOException
+    {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) Math.max(1, (size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int index = 0; index < segments.length; index++)
+        {
+            long start = (long) index << SEGMENT_SHIFT;
+            segments[index] = channel.map(mode, position + start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments;
+    }
+    
+    
+    private static int getInt(ByteBuffer[] segments, long position)
+    {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & (SEGMENT_SIZE - 1)));
+    }
+    
+    
+    private static void putInt(ByteBuffer[] segments, long position, int value)
+    {
+        segments[(int) (position >>> SEGMENT_SHIFT)].putInt((int) (position & (SEGMENT_SIZE - 1)), value);
+    }
+    
+    
+    private static long getLong(ByteBuffer[] segments, long position)
+    {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & (SEGMENT_SIZE - 1)));
+    }
+    
+    
+    private static void putLong(ByteBuffer[] segments, long position, long value)
+    {
+        segments[(int) (position >>> SEGMENT_SHIFT)].putLong((int) (position & (SEGMENT_SIZE - 1)), value);
+    }
+    
+    
+    /**
+     * Returns the number of nodes in the Tree file.
+     * 
+     * @return The number of nodes
+     */
+    public int getNodeCount()
+    {
+        return storage.count;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#storage()
+     */
+    protected Object storage()
+    {
+        return storage;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#node(int)
+     */
+    protected MappedTree<V> node(int index)
+    {
+        return index >= 0 ? new MappedTree<V>(storage, index) : null;
+    }
+    
+    
+    private int field(int index, int field)
+    {
+        return getInt(storage.segments, HEADER_SIZE + (long) index * RECORD_SIZE + field);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#parentIndex(int)
+     */
+    protected int parentIndex(int index)
+    {
+        return field(index, PARENT);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#firstChildIndex(int)
+     */
+    protected int firstChildIndex(int index)
+    {
+        // records are in preorder, the first child immediately follows its parent
+        return field(index, DESCENDANTS) > 0 ? index + 1 : -1;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#nextSiblingIndex(int)
+     */
+    protected int nextSiblingIndex(int index)
+    {
+        return field(index, NEXT);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#previousSiblingIndex(int)
+     */
+    protected int previousSiblingIndex(int index)
+    {
+        return field(index, PREVIOUS);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#childCount(int)
+     */
+    protected int childCount(int index)
+    {
+        return field(index, CHILDREN);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#descendantCount(int)
+     */
+    protected int descendantCount(int index)
+    {
+        return field(index, DESCENDANTS);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#nextInSubtree(int, int)
+     */
+    protected int nextInSubtree(int root, int node)
+    {
+        // the subtree is the contiguous range of records following its root
+        return node < root + field(root, DESCENDANTS) ? node + 1 : -1;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.IndexedTree#valueAt(int)
+     */
+    protected V valueAt(int index)
+    {
+        long offset = getLong(storage.segments, HEADER_SIZE + (long) index * RECORD_SIZE + VALUE);
+        if (offset < 0)
+        {
+            return null;
+        }
+        
+        ByteBuffer buffer = storage.segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+        buffer.position((int) (offset & (SEGMENT_SIZE - 1)));
+        try
+        {
+            return storage.codec.read(new ByteBufferInput(buffer));
+        } catch (IOException e)
+        {
+            throw new IllegalStateException("Value of node " + index + " could not be decoded - " + e.getMessage(), e);
+        }
+    }
+    
+    
+    /**
+     * The mapped segments of a Tree file, shared by all of its nodes.
+     */
+    private static final class Storage<V>
+    {
+        private final MappedByteBuffer[] segments;
+        
+        private final int count;
+        
+        private final ValueCodec<? extends V> codec;
+        
+        
+        private Storage(MappedByteBuffer[] segments, int count, ValueCodec<? extends V> codec)
+        {
+            this.segments = segments;
+            this.count = count;
+            this.codec = codec;
+        }
+    }
+    
+    
+    /**
+     * A DataInput reading a value from a mapped segment.
+     */
+    private static final class ByteBufferInput implements DataInput
+    {
+        private final ByteBuffer buffer;
+        
+        
+        private ByteBufferInput(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+        
+        
+        public void readFully(byte[] bytes)
+        throws IOException
+        {
+            readFully(bytes, 0, bytes.length);
+        }
+        
+        
+        public void readFully(byte[] bytes, int offset, int length)
+        throws IOException
+        {
+            if (buffer.remaining() < length)
+            {
+                throw new IOException("Unexpected end of segment");
+            }
+            buffer.get(bytes, offset, length);
+        }
+        
+        
+        public int skipBytes(int count)
+        {
+            count = Math.min(count, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+        
+        
+        public boolean readBoolean()
+        {
+            return buffer.get() != 0;
+        }
+        
+        
+        public byte readByte()
+        {
+            return buffer.get();
+        }
+        
+        
+        public int readUnsignedByte()
+        {
+            return buffer.get() & 0xFF;
+        }
+        
+        
+        public short readShort()
+        {
+            return buffer.getShort();
+        }
+        
+        
+        public int readUnsignedShort()
+        {
+            return buffer.getShort() & 0xFFFF;
+        }
+        
+        
+        public char readChar()
+        {
+            return buffer.getChar();
+        }
+        
+        
+        public int readInt()
+        {
+            return buffer.getInt();
+        }
+        
+        
+        public long readLong()
+        {
+            return buffer.getLong();
+        }
+        
+        
+        public float readFloat()
+        {
+            return buffer.getFloat();
+        }
+        
+        
+        public double readDouble()
+        {
+            return buffer.getDouble();
+        }
+        
+        
+        public String readLine()
+        {
+            // As DataInputStream, each byte is a character and the line ends at a
+            // newline, a carriage return or a carriage return and newline.
+            if (!buffer.hasRemaining())
+            {
+                return null;
+            }
+            
+            StringBuilder line = new StringBuilder();
+            while (buffer.hasRemaining())
+            {
+                char c = (char) (buffer.get() & 0xFF);
+                if (c == '\n')
+                {
+                    break;
+                } else if (c == '\r')
+                {
+                    if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n')
+                    {
+                        buffer.get();
+                    }
+                    break;
+                }
+                line.append(c);
+            }
+            return line.toString();
+        }
+        
+        
+        public String readUTF()
+        throws IOException
+        {
+            return DataInputStream.readUTF(this);
+        }
+    }
+}
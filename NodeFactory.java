@@ -0,0 +1,20 @@
+package net.posick.tree;
+
+/**
+ * The NodeFactory creates the Tree nodes for values added to a Tree.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ */
+public interface NodeFactory<T extends Tree<T, V>, V>
+{
+    /**
+     * Creates a new node, not yet linked into a Tree, holding the specified value.
+     * 
+     * @param value The value for the new node, null for an empty node
+     * @return The new node
+     */
+    public T newNode(V value);
+}
@@ -0,0 +1,237 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The PathLoader builds or merges a Tree from a sequence of paths, each path
+ * being the values of the nodes from the top level of the tree to the node it
+ * creates.  The nodes of the previous path are kept, a path only looks up the
+ * levels following the prefix it shares with the previous path, so sorted paths
+ * are loaded with a single lookup or append per node.  Unsorted paths look up
+ * their children in the child index, which the loader enables for trees that
+ * have no child index threshold.  <code>finish</code> restores the threshold of
+ * an existing tree once the paths are loaded.
+ * <p>
+ * The first value of a path is matched to the root node or one of its top level
+ * siblings, a root without a value takes the value of the first path.  The tree
+ * must not be changed other than through the loader while paths are loaded.
+ *
+ * @author Steve Posick
+ *
+ * @param <T> The Tree node type
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class PathLoader<T extends AbstractTree<T, V>, V>
+{
+    /**
+     * The child index threshold set on trees loaded without one.
+     */
+    public static final int LOAD_INDEX_THRESHOLD = 16;
+    
+    private final Class<? super T> clazz;
+    
+    private T root;
+    
+    private boolean restoreThreshold;
+    
+    private final List<T> path = new ArrayList<T>();
+    
+    
+    /**
+     * Creates a PathLoader building a new Tree of the class.
+     *
+     * @param clazz The class that represents the type of Tree
+     */
+    public PathLoader(Class<? super T> clazz)
+    {
+        this(clazz, null);
+    }
+    
+    
+    /**
+     * Creates a PathLoader merging paths into an existing Tree.
+     *
+     * @param clazz The class that represents the type of Tree
+     * @param root The root node of the tree or null to build a new Tree
+     */
+    public PathLoader(Class<? super T> clazz, T root)
+    {
+        this.clazz = clazz;
+        this.restoreThreshold = root != null && root.getChildIndexThreshold() == 0;
+        setRoot(root);
+    }
+    
+    
+    private void setRoot(T root)
+    {
+        this.root = root;
+        if (root != null && root.getChildIndexThreshold() == 0)
+        {
+            root.setChildIndexThreshold(LOAD_INDEX_THRESHOLD);
+        }
+    }
+    
+    
+    /**
+     * Returns the root node of the tree, null until a path was loaded into a new
+     * Tree.
+     *
+     * @return The root node
+     */
+    public T getRoot()
+    {
+        return root;
+    }
+    
+    
+    /**
+     * Adds the path of ancestors and the value, creating the nodes missing from
+     * the tree.
+     *
+     * @param ancestors The ancestors aka. parent hierarchy
+     * @param value The value
+     * @return The node holding the value
+     */
+    public T add(List<V> ancestors, V value)
+    {
+        int size = ancestors != null ? ancestors.size() : 0;
+        int level = retain(ancestors, size, value);
+        
+        for (; level < size; level++)
+        {
+            step(level, ancestors.get(level));
+        }
+        if (level == size)
+        {
+            step(level, value);
+        }
+        return path.get(size);
+    }
+    
+    
+    /**
+     * Adds the path, creating the nodes missing from the tree.
+     *
+     * @param values The values of the nodes from the top level of the tree
+     * @return The node holding the last value
+     */
+    public T add(List<V> values)
+    {
+        if (values == null || values.isEmpty())
+        {
+            throw new IllegalArgumentException("A path must hold at least one value");
+        }
+        return add(values.subList(0, values.size() - 1), values.get(values.size() - 1));
+    }
+    
+    
+    /**
+     * Adds the paths, creating the nodes missing from the tree.
+     *
+     * @param paths The paths, each holding the values of the nodes from the top
+     *            level of the tree
+     * @return The root node of the tree
+     */
+    public T addAll(Iterable<? extends List<V>> paths)
+    {
+        for (Iterator<? extends List<V>> iterator = paths.iterator(); iterator.hasNext(); )
+        {
+            add(iterator.next());
+        }
+        return root;
+    }
+    
+    
+    /**
+     * Finishes the load, restoring the child index threshold of an existing tree
+     * the loader enabled the child index of.  Nodes added by the loader keep the
+     * threshold they inherited, so the children they index remain indexed.  The
+     * loader should not be used once the load is finished.
+     *
+     * @return The root node of the tree
+     */
+    public T finish()
+    {
+        if (restoreThreshold)
+        {
+            root.setChildIndexThreshold(0);
+            restoreThreshold = false;
+        }
+        path.clear();
+        return root;
+    }
+    
+    
+    /**
+     * Discards the nodes of the previous path that are not shared with the path,
+     * returning the number of levels shared.
+     */
+    private int retain(List<V> ancestors, int size, V value)
+    {
+        int level = 0;
+        int limit = Math.min(path.size(), size + 1);
+        while (level < limit)
+        {
+            T node = path.get(level);
+            V pathValue = level < size ? ancestors.get(level) : value;
+            if (!equal(node.getValue(), pathValue) || (level > 0 && node.getParent() != path.get(level - 1)))
+            {
+                break;
+            }
+            level++;
+        }
+        
+        for (int index = path.size() - 1; index >= level; index--)
+        {
+            path.remove(index);
+        }
+        return level;
+    }
+    
+    
+    /**
+     * Finds or creates the node holding the value at the level, beneath the node of
+     * the previous level.
+     */
+    private void step(int level, V value)
+    {
+        T node;
+        if (level == 0)
+        {
+            if (root == null)
+            {
+                setRoot((T) AbstractTree.newInstance((Class) clazz, value));
+                node = root;
+            } else if (root.getValue() == null || root.getValue().equals(value))
+            {
+                root.setValue(value);
+                node = root;
+            } else
+            {
+                node = root.getSibling(value);
+                if (node == null)
+                {
+                    node = root.addSibling(value);
+                }
+            }
+        } else
+        {
+            T parent = path.get(level - 1);
+            node = parent.getChild(value);
+            if (node == null)
+            {
+                node = parent.addChild(value);
+            }
+        }
+        path.add(node);
+    }
+    
+    
+    private static boolean equal(Object a, Object b)
+    {
+        return a == b || (a != null && a.equals(b));
+    }
+}
@@ -0,0 +1,83 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Loads paths into LinkedTrees through <code>AbstractTree.createPaths</code> and a
+ * PathLoader, then checks that every path was created once and that the child
+ * index threshold of an existing tree is restored.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings("unchecked")
+public class PathLoaderTest
+{
+    public PathLoaderTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        List<List<String>> paths = new ArrayList<List<String>>();
+        for (int i = 0; i < 20; i++)
+        {
+            for (int j = 0; j < 20; j++)
+            {
+                paths.add(Arrays.asList("root", "a" + i, "b" + j));
+            }
+        }
+        
+        // sorted paths into a new tree
+        LinkedTree<String> tree = AbstractTree.createPaths(LinkedTree.class, null, paths);
+        check(tree.getValue().equals("root") && tree.getDescendantCount() == 20 + 400, "new tree holds " + tree.getDescendantCount() + " descendants");
+        check(tree.find(Arrays.asList("a7", "b13")) != null, "find");
+        
+        // unsorted paths merged into an existing tree, the shared paths are not duplicated
+        LinkedTree<String> existing = new LinkedTree<String>("root");
+        existing.addChild("a3").addChild("b3");
+        List<List<String>> shuffled = new ArrayList<List<String>>(paths);
+        Collections.shuffle(shuffled, new Random(1));
+        shuffled.add(Arrays.asList("root", "c", "d", "e"));
+        LinkedTree<String> merged = AbstractTree.createPaths(LinkedTree.class, existing, shuffled);
+        check(merged == existing, "merged into another root");
+        check(existing.getDescendantCount() == 20 + 400 + 3, "merged tree holds " + existing.getDescendantCount() + " descendants");
+        check(existing.getChildIndexThreshold() == 0, "the child index threshold was not restored");
+        check(existing.find(Arrays.asList("c", "d", "e")) != null, "deep path");
+        
+        // paths loaded one at a time
+        PathLoader<LinkedTree<String>, String> loader = new PathLoader<LinkedTree<String>, String>(LinkedTree.class);
+        try
+        {
+            loader.add(Arrays.asList("x", "y"));
+            loader.add(Arrays.asList("x", "y", "z"));
+            loader.add(Arrays.asList("x", "w"));
+        } finally
+        {
+            loader.finish();
+        }
+        LinkedTree<String> loaded = loader.getRoot();
+        check(loaded.getValue().equals("x") && loaded.getDescendantCount() == 3, "loader holds " + loaded.getDescendantCount() + " descendants");
+        check(loaded.getChild("y").getChild("z") != null, "loader path");
+        
+        System.out.println("PathLoaderTest passed");
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,698 @@
+package net.posick.tree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * The PersistentTree is an immutable Tree.  Changing the tree creates a new
+ * version of it, copying only the changed node and its ancestors, the unchanged
+ * subtrees are shared between the versions.  A version never changes, so readers
+ * holding a version need no locking while writers create new versions.
+ * <p>
+ * The nodes of a version hold their value and children but not their parent, so
+ * they can be shared.  A PersistentTree is a cursor to a node, holding the path
+ * from the root of its version.  The <code>add</code> methods of the Tree
+ * interface return the added node in a new version, the receiver is unchanged.
+ * <code>withValue</code>, <code>withReplacement</code> and <code>without</code>
+ * take the place of the Tree methods that return no node, which are not supported.
+ *
+ * @author Steve Posick
+ *
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class PersistentTree<V> implements Tree<PersistentTree<V>, V>
+{
+    private static final Node[] NO_CHILDREN = new Node[0];
+    
+    private final Node<V> node;
+    
+    private final PersistentTree<V> parent;
+    
+    private final int index;
+    
+    
+    /**
+     * Creates the first version of a tree, holding a single node with the value.
+     *
+     * @param value The value
+     */
+    public PersistentTree(V value)
+    {
+        this(new Node<V>(value, NO_CHILDREN, 1), null, 0);
+    }
+    
+    
+    private PersistentTree(Node<V> node, PersistentTree<V> parent, int index)
+    {
+        this.node = node;
+        this.parent = parent;
+        this.index = index;
+    }
+    
+    
+    private PersistentTree<V> child(int index)
+    {
+        return index >= 0 && index < node.children.length ? new PersistentTree<V>(node.children[index], this, index) : null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getParent()
+     */
+    public PersistentTree<V> getParent()
+    {
+        return parent;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getFirstChild()
+     */
+    public PersistentTree<V> getFirstChild()
+    {
+        return child(0);
+    }
+    
+    
+    /**
+     * Returns the last child of this node.
+     *
+     * @return The last child or null
+     */
+    public PersistentTree<V> getLastChild()
+    {
+        return child(node.children.length - 1);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getNextSibling()
+     */
+    public PersistentTree<V> getNextSibling()
+    {
+        return parent != null ? parent.child(index + 1) : null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getPreviousSibling()
+     */
+    public PersistentTree<V> getPreviousSibling()
+    {
+        return parent != null ? parent.child(index - 1) : null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getValue()
+     */
+    public V getValue()
+    {
+        return node.value;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChild(V)
+     */
+    public PersistentTree<V> getChild(V value)
+    {
+        if (value != null)
+        {
+            Node<V>[] children = node.children;
+            for (int index = 0; index < children.length; index++)
+            {
+                if (value.equals(children[index].value))
+                {
+                    return child(index);
+                }
+            }
+        }
+        return null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSibling(V)
+     */
+    public PersistentTree<V> getSibling(V value)
+    {
+        if (value != null && parent != null)
+        {
+            Node<V>[] siblings = parent.node.children;
+            for (int index = 0; index < siblings.length; index++)
+            {
+                if (index != this.index && value.equals(siblings[index].value))
+                {
+                    return parent.child(index);
+                }
+            }
+        }
+        return null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#hasChildren()
+     */
+    public boolean hasChildren()
+    {
+        return node.children.length > 0;
+    }
+    
+    
+    /**
+     * Returns the number of direct children of this node.
+     *
+     * @return The number of children
+     */
+    public int getChildCount()
+    {
+        return node.children.length;
+    }
+    
+    
+    /**
+     * Returns the number of nodes beneath this node, recursively.
+     *
+     * @return The number of descendants
+     */
+    public int getDescendantCount()
+    {
+        return node.size - 1;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChildren()
+     */
+    public List<PersistentTree<V>> getChildren()
+    {
+        return new ChildList(this, -1);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSiblings()
+     */
+    public List<PersistentTree<V>> getSiblings()
+    {
+        return parent != null ? new ChildList(parent, index) : Collections.<PersistentTree<V>>emptyList();
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getDescendants()
+     */
+    public List<PersistentTree<V>> getDescendants()
+    {
+        return new AbstractList<PersistentTree<V>>()
+        {
+            @Override
+            public Iterator<PersistentTree<V>> iterator()
+            {
+                return new Iterator<PersistentTree<V>>()
+                {
+                    private PersistentTree<V> next = getFirstChild();
+                    
+                    
+                    public boolean hasNext()
+                    {
+                        return next != null;
+                    }
+                    
+                    
+                    public PersistentTree<V> next()
+                    {
+                        if (next == null)
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        
+                        PersistentTree<V> current = next;
+                        next = current.nextInPreorder(PersistentTree.this);
+                        return current;
+                    }
+                    
+                    
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+            
+            
+            @Override
+            public PersistentTree<V> get(int index)
+            {
+                if (index >= 0)
+                {
+                    int count = 0;
+                    for (PersistentTree<V> node : this)
+                    {
+                        if (count++ == index)
+                        {
+                            return node;
+                        }
+                    }
+                }
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size() - 1));
+            }
+            
+            
+            @Override
+            public int size()
+            {
+                return node.size - 1;
+            }
+        };
+    }
+    
+    
+    /**
+     * Returns the node following this node in preorder, within the subtree of the root.
+     */
+    private PersistentTree<V> nextInPreorder(PersistentTree<V> root)
+    {
+        if (node.children.length > 0)
+        {
+            return child(0);
+        }
+        
+        PersistentTree<V> current = this;
+        while (current != root)
+        {
+            PersistentTree<V> next = current.getNextSibling();
+            if (next != null)
+            {
+                return next;
+            }
+            current = current.parent;
+        }
+        return null;
+    }
+    
+    
+    private int depth()
+    {
+        int depth = 0;
+        for (PersistentTree<V> current = parent; current != null; current = current.parent)
+        {
+            depth++;
+        }
+        return depth;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getRoot()
+     */
+    public PersistentTree<V> getRoot()
+    {
+        PersistentTree<V> root = this;
+        while (root.parent != null)
+        {
+            root = root.parent;
+        }
+        return root;
+    }
+    
+    
+    /**
+     * Traverses the tree using this node as a starting point.  The traverse action
+     * is executed for each node encountered.
+     *
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(TraverseAction<PersistentTree<V>, V> action)
+    {
+        PersistentTree<V> current = this;
+        int level = 1;
+        
+        while (current != null)
+        {
+            int result = action.action(current, level);
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            }
+            
+            PersistentTree<V> next = result == TraverseAction.CONTINUE ? current.getFirstChild() : null;
+            if (next != null)
+            {
+                level++;
+            } else
+            {
+                while ((next = current.getNextSibling()) == null && level > 1)
+                {
+                    current = current.parent;
+                    level--;
+                }
+            }
+            current = next;
+        }
+    }
+    
+    
+    /**
+     * Returns this node with the value in a new version of the tree.
+     *
+     * @param value The value
+     * @return The node in the new version
+     */
+    public PersistentTree<V> withValue(V value)
+    {
+        return rebuild(this, new Node<V>(value, node.children, node.size));
+    }
+    
+    
+    /**
+     * Returns the node replacing this node in a new version of the tree.  The
+     * replacement node and its descendants are shared with the version it
+     * belongs to.
+     *
+     * @param newNode The node that will replace this node
+     * @return The replacement node in the new version
+     */
+    public PersistentTree<V> withReplacement(PersistentTree<V> newNode)
+    {
+        return rebuild(this, newNode.node);
+    }
+    
+    
+    /**
+     * Returns the parent of this node in a new version of the tree without this
+     * node and its descendants.
+     *
+     * @return The parent in the new version
+     */
+    public PersistentTree<V> without()
+    {
+        if (parent == null)
+        {
+            throw new UnsupportedOperationException("The root of a PersistentTree can not be removed");
+        }
+        
+        Node<V> old = parent.node;
+        Node<V>[] children = new Node[old.children.length - 1];
+        System.arraycopy(old.children, 0, children, 0, index);
+        System.arraycopy(old.children, index + 1, children, index, children.length - index);
+        return rebuild(parent, new Node<V>(old.value, children, old.size - node.size));
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(V, int)
+     */
+    public PersistentTree<V> add(V value, int mode)
+    {
+        return add(new Node<V>(value, NO_CHILDREN, 1), mode);
+    }
+    
+    
+    /**
+     * Adds a node to a new version of the tree using this node as a reference point.
+     * The new node and its descendants are shared with the version it belongs to.
+     *
+     * @param newNode The node to add
+     * @param mode The node indicator, how the node will be added
+     * @return The added node in the new version
+     */
+    public PersistentTree<V> add(PersistentTree<V> newNode, int mode)
+    {
+        return add(newNode.node, mode);
+    }
+    
+    
+    /**
+     * Adds a new child node holding the value to the end of the list of children,
+     * in a new version of the tree.
+     *
+     * @param value The value
+     * @return The added node in the new version
+     */
+    public PersistentTree<V> addChild(V value)
+    {
+        return add(value, LASTCHILD);
+    }
+    
+    
+    private PersistentTree<V> add(Node<V> newNode, int mode)
+    {
+        switch (mode)
+        {
+            case PARENT:
+                return rebuild(this, new Node<V>(newNode.value, new Node[] {node}, 1 + node.size));
+            case CHILD:
+                return rebuild(this, node.insert(0, newNode)).child(0);
+            case LASTCHILD:
+                return rebuild(this, node.insert(node.children.length, newNode)).child(node.children.length);
+            case NEXT:
+            case PREVIOUS:
+            case LAST:
+                if (parent == null)
+                {
+                    throw new UnsupportedOperationException("The root of a PersistentTree has no siblings");
+                }
+                
+                int position = mode == NEXT ? index + 1 : mode == PREVIOUS ? index : parent.node.children.length;
+                return rebuild(parent, parent.node.insert(position, newNode)).child(position);
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+    
+    
+    /**
+     * Creates a new version of the tree in which the node at the position of the
+     * cursor is replaced, copying its ancestors.  The path is walked iteratively, so
+     * the depth of the tree is not limited by the stack.
+     *
+     * @param cursor The position of the replaced node
+     * @param replacement The new node
+     * @return The cursor to the new node in the new version
+     */
+    private static <V> PersistentTree<V> rebuild(PersistentTree<V> cursor, Node<V> replacement)
+    {
+        int depth = cursor.depth();
+        int[] indexes = new int[depth];
+        Node<V>[] nodes = new Node[depth + 1];
+        
+        nodes[depth] = replacement;
+        int delta = replacement.size - cursor.node.size;
+        PersistentTree<V> current = cursor;
+        for (int level = depth - 1; level >= 0; level--)
+        {
+            indexes[level] = current.index;
+            current = current.parent;
+            
+            Node<V> old = current.node;
+            Node<V>[] children = old.children.clone();
+            children[indexes[level]] = nodes[level + 1];
+            nodes[level] = new Node<V>(old.value, children, old.size + delta);
+        }
+        
+        PersistentTree<V> result = new PersistentTree<V>(nodes[0], null, 0);
+        for (int level = 0; level < depth; level++)
+        {
+            result = new PersistentTree<V>(nodes[level + 1], result, indexes[level]);
+        }
+        return result;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setValue(V)
+     */
+    public void setValue(V value)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable, use withValue");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#replace(T)
+     */
+    public void replace(PersistentTree<V> newNode)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable, use withReplacement");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#remove()
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable, use without");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setParent(T)
+     */
+    public void setParent(PersistentTree<V> parent)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setFirstChild(T)
+     */
+    public void setFirstChild(PersistentTree<V> child)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setNextSibling(T)
+     */
+    public void setNextSibling(PersistentTree<V> sibling)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setPreviousSibling(T)
+     */
+    public void setPreviousSibling(PersistentTree<V> sibling)
+    {
+        throw new UnsupportedOperationException("PersistentTree is immutable");
+    }
+    
+    
+    /**
+     * Returns true if the object is a cursor to the same node of the same version.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object object)
+    {
+        if (object instanceof PersistentTree)
+        {
+            PersistentTree that = (PersistentTree) object;
+            PersistentTree current = this;
+            while (current != null && that != null && current.node == that.node && current.index == that.index)
+            {
+                if (current == that)
+                {
+                    return true;
+                }
+                current = current.parent;
+                that = that.parent;
+            }
+            return current == null && that == null;
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+        return System.identityHashCode(node) * 31 + index;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        final StringBuilder buffer = new StringBuilder();
+        
+        getRoot().traverse(new TraverseAction<PersistentTree<V>, V>()
+        {
+            public int action(PersistentTree<V> node, int level)
+            {
+                for (int index = 1; index < level; index++)
+                {
+                    buffer.append("\t");
+                }
+                buffer.append(node.getClass().getSimpleName()).append(" [").append(node.getValue()).append("]\n");
+                return TraverseAction.CONTINUE;
+            }
+        });
+        
+        return buffer.toString();
+    }
+    
+    
+    /**
+     * An immutable node, shared between the versions of a tree.
+     */
+    private static final class Node<V>
+    {
+        private final V value;
+        
+        private final Node<V>[] children;
+        
+        private final int size;
+        
+        
+        private Node(V value, Node<V>[] children, int size)
+        {
+            this.value = value;
+            this.children = children;
+            this.size = size;
+        }
+        
+        
+        private Node<V> insert(int position, Node<V> child)
+        {
+            Node<V>[] children = Arrays.copyOf(this.children, this.children.length + 1);
+            System.arraycopy(children, position, children, position + 1, this.children.length - position);
+            children[position] = child;
+            return new Node<V>(value, children, size + child.size);
+        }
+    }
+    
+    
+    /**
+     * The children of a node, or the siblings of one of them.
+     */
+    private static final class ChildList<V> extends AbstractList<PersistentTree<V>> implements RandomAccess
+    {
+        private final PersistentTree<V> parent;
+        
+        private final int ignore;
+        
+        
+        private ChildList(PersistentTree<V> parent, int ignore)
+        {
+            this.parent = parent;
+            this.ignore = ignore;
+        }
+        
+        
+        @Override
+        public PersistentTree<V> get(int index)
+        {
+            if (index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index " + index + " is out of bounds, 0 thru " + (size() - 1));
+            }
+            return parent.child(ignore >= 0 && index >= ignore ? index + 1 : index);
+        }
+        
+        
+        @Override
+        public int size()
+        {
+            return parent.node.children.length - (ignore >= 0 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inserts and removes the children of a LinkedTree at random positions, checking
+ * the positions and positional lookups of the children against a list, then
+ * checks that positional lookups among many children are not linear.
+ *
+ * @author Steve Posick
+ */
+public class PositionIndexTest
+{
+    private static final int OPERATIONS = 20000;
+    
+    private static final int CHILDREN = 100000;
+    
+    private static final long TIME_LIMIT = 5000;
+    
+    
+    public PositionIndexTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        Random random = new Random(7);
+        LinkedTree<String> root = new LinkedTree<String>("Root");
+        List<LinkedTree<String>> mirror = new ArrayList<LinkedTree<String>>();
+        for (int i = 0; i < OPERATIONS; i++)
+        {
+            if (mirror.isEmpty() || random.nextInt(10) < 6)
+            {
+                LinkedTree<String> node = new LinkedTree<String>("Node " + i);
+                int at = random.nextInt(mirror.size() + 1);
+                if (at == mirror.size())
+                {
+                    AbstractTree.add(root, node, Tree.LASTCHILD);
+                } else if (at == 0)
+                {
+                    AbstractTree.add(mirror.get(0), node, Tree.PREVIOUS);
+                } else
+                {
+                    AbstractTree.add(mirror.get(at - 1), node, Tree.NEXT);
+                }
+                mirror.add(at, node);
+            } else
+            {
+                mirror.remove(random.nextInt(mirror.size())).remove();
+            }
+            
+            if (!mirror.isEmpty() && (i % 97 == 0 || random.nextInt(3) == 0))
+            {
+                int k = random.nextInt(mirror.size());
+                check(mirror.get(k).getPosition() == k, "position of child " + k + " is " + mirror.get(k).getPosition() + " after " + i + " operations");
+                check(root.getChildren().get(k) == mirror.get(k), "child " + k + " after " + i + " operations");
+            }
+        }
+        check(root.getChildCount() == mirror.size(), "child count");
+        for (int k = 0; k < mirror.size(); k++)
+        {
+            check(mirror.get(k).getPosition() == k, "final position of child " + k);
+        }
+        
+        // removing children until the index is no longer used keeps the positions
+        while (mirror.size() > 4)
+        {
+            mirror.remove(random.nextInt(mirror.size())).remove();
+        }
+        for (int k = 0; k < mirror.size(); k++)
+        {
+            check(mirror.get(k).getPosition() == k && root.getChildren().get(k) == mirror.get(k), "position of child " + k + " of a few");
+        }
+        
+        long start = System.currentTimeMillis();
+        LinkedTree<String> parent = new LinkedTree<String>("Parent");
+        for (int i = 0; i < CHILDREN; i++)
+        {
+            parent.addChild("Child " + i);
+        }
+        List<LinkedTree<String>> children = parent.getChildren();
+        for (int i = 0; i < CHILDREN; i++)
+        {
+            int k = random.nextInt(CHILDREN);
+            LinkedTree<String> child = children.get(k);
+            check(child.getPosition() == k && child.getValue().equals("Child " + k), "child " + k + " of " + CHILDREN);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        check(elapsed < TIME_LIMIT, CHILDREN + " positional lookups took " + elapsed + "ms");
+        
+        System.out.println("PositionIndexTest passed");
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
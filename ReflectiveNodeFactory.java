@@ -0,0 +1,157 @@
+package net.posick.tree;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default NodeFactory, creates nodes using the public constructors of the
+ * Tree class.  The constructor taking the value is resolved once per value class
+ * and cached as a MethodHandle, if there is no such constructor the zero arg
+ * constructor is used and the value is set on the new node.
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings("unchecked")
+class ReflectiveNodeFactory<T extends Tree<T, V>, V> implements NodeFactory<T, V>
+{
+    private static final MethodType VALUE_CONSTRUCTOR = MethodType.methodType(Object.class, Object.class);
+    
+    private static final MethodType NO_ARG_CONSTRUCTOR = MethodType.methodType(Object.class);
+    
+    private final Class<T> clazz;
+    
+    private final MethodHandle noArgConstructor;
+    
+    private final ConcurrentHashMap<Class<?>, MethodHandle> valueConstructors = new ConcurrentHashMap<Class<?>, MethodHandle>();
+    
+    
+    public ReflectiveNodeFactory(Class<T> clazz)
+    {
+        this.clazz = clazz;
+        
+        MethodHandle constructor;
+        try
+        {
+            constructor = MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class)).asType(NO_ARG_CONSTRUCTOR);
+        } catch (NoSuchMethodException e)
+        {
+            constructor = null;
+        } catch (IllegalAccessException e)
+        {
+            constructor = null;
+        }
+        noArgConstructor = constructor;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.NodeFactory#newNode(V)
+     */
+    public T newNode(V value)
+    {
+        try
+        {
+            if (value != null)
+            {
+                MethodHandle constructor = valueConstructors.get(value.getClass());
+                if (constructor == null)
+                {
+                    constructor = resolve(value.getClass());
+                }
+                
+                if (constructor != noArgConstructor)
+                {
+                    return (T) (Object) constructor.invokeExact((Object) value);
+                }
+            }
+            
+            if (noArgConstructor == null)
+            {
+                throw new RuntimeException("Cannot find zero arg constructor for \"" + clazz.getName() + "\"!");
+            }
+            
+            T node = (T) (Object) noArgConstructor.invokeExact();
+            if (value != null)
+            {
+                node.setValue(value);
+            }
+            return node;
+        } catch (RuntimeException e)
+        {
+            throw e;
+        } catch (Error e)
+        {
+            throw e;
+        } catch (Throwable e)
+        {
+            throw new RuntimeException("Cannot instantiate \"" + clazz.getName() + "\"!", e);
+        }
+    }
+    
+    
+    /**
+     * Resolves the most specific public single argument constructor accepting
+     * values of the specified class.  The zero arg constructor handle is cached
+     * when there is no such constructor or the choice is ambiguous.
+     * 
+     * @param valueClass The class of the value
+     * @return The constructor handle
+     */
+    private MethodHandle resolve(Class<?> valueClass)
+    {
+        List<Constructor<?>> candidates = new ArrayList<Constructor<?>>();
+        for (Constructor<?> constructor : clazz.getConstructors())
+        {
+            if (constructor.getParameterTypes().length == 1 && parameterType(constructor).isAssignableFrom(valueClass))
+            {
+                candidates.add(constructor);
+            }
+        }
+        
+        Constructor<?> match = null;
+        for (Constructor<?> candidate : candidates)
+        {
+            boolean specific = true;
+            for (Constructor<?> other : candidates)
+            {
+                specific &= parameterType(other).isAssignableFrom(parameterType(candidate));
+            }
+            
+            if (specific)
+            {
+                match = candidate;
+                break;
+            }
+        }
+        
+        MethodHandle handle = noArgConstructor;
+        if (match != null)
+        {
+            try
+            {
+                handle = MethodHandles.publicLookup().unreflectConstructor(match).asType(VALUE_CONSTRUCTOR);
+            } catch (IllegalAccessException e)
+            {
+                handle = noArgConstructor;
+            }
+        }
+        
+        if (handle != null)
+        {
+            valueConstructors.put(valueClass, handle);
+        }
+        return handle;
+    }
+    
+    
+    private static Class<?> parameterType(Constructor<?> constructor)
+    {
+        return MethodType.methodType(constructor.getParameterTypes()[0]).wrap().returnType();
+    }
+}
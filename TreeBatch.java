@@ -0,0 +1,417 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The TreeBatch records structural edits to a tree and applies them together.
+ * While a batch is committed the descendant counts and child indexes are not
+ * maintained per edit, they are invalidated and recounted or rebuilt once they
+ * are next read, and an interval index of the tree is rebuilt once after the
+ * edits were applied.
+ * <p>
+ * Each applied edit is logged with the state needed to reverse it.  If an edit
+ * fails the edits of the commit that were already applied are reversed before the
+ * exception is rethrown, so a commit is applied entirely or not at all, and
+ * <code>rollback</code> reverses all committed edits of the batch.  The tree must
+ * not be changed other than through the batch until it is rolled back, or the
+ * edits can not be reversed.
+ * <p>
+ * The listeners of the tree are notified once a commit or rollback is complete,
+ * by one event for each subtree changed by the structural edits; value changes
+ * are notified as they are applied.  The log of committed edits is kept until the
+ * batch is rolled back or <code>release</code> is called.
+ *
+ * @author Steve Posick
+ *
+ * @param <T> The Tree node type
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class TreeBatch<T extends AbstractTree<T, V>, V>
+{
+    private static final int ADD = 0;
+    
+    private static final int REMOVE = 1;
+    
+    private static final int VALUE = 2;
+    
+    private final T root;
+    
+    private final List<Edit> pending = new ArrayList<Edit>();
+    
+    private final List<Edit> applied = new ArrayList<Edit>();
+    
+    
+    /**
+     * Creates a batch of edits to the tree of the root node.
+     *
+     * @param root The root node of the tree
+     */
+    public TreeBatch(T root)
+    {
+        if (root == null)
+        {
+            throw new IllegalArgumentException("A batch requires the root node of a tree");
+        }
+        this.root = root;
+    }
+    
+    
+    /**
+     * An edit, recorded with its operands and, once applied, the state needed to
+     * reverse it.
+     */
+    private static class Edit
+    {
+        final int type;
+        
+        final AbstractTree node;
+        
+        final AbstractTree refNode;
+        
+        final int mode;
+        
+        Object value;
+        
+        AbstractTree parent;
+        
+        AbstractTree previous;
+        
+        AbstractTree next;
+        
+        
+        private Edit(int type, AbstractTree node, AbstractTree refNode, int mode, Object value)
+        {
+            this.type = type;
+            this.node = node;
+            this.refNode = refNode;
+            this.mode = mode;
+            this.value = value;
+        }
+    }
+    
+    
+    /**
+     * Returns the root node of the tree, which is the root node the batch was
+     * created with unless a parent was added above it.
+     *
+     * @return The root node
+     */
+    public T getRoot()
+    {
+        return root.getRoot();
+    }
+    
+    
+    /**
+     * Returns the number of edits recorded and not yet committed.
+     *
+     * @return The number of pending edits
+     */
+    public int size()
+    {
+        return pending.size();
+    }
+    
+    
+    /**
+     * Records the addition of the node to the tree.  The node must not be linked
+     * into a tree when the edit is applied.
+     *
+     * @param refNode The reference node, reference point within tree
+     * @param newNode The node that is to be added
+     * @param mode The node indicator, how the node will be added
+     * @return The node that will be added
+     */
+    public T add(T refNode, T newNode, int mode)
+    {
+        if (refNode == null || newNode == null)
+        {
+            throw new IllegalArgumentException("The reference node and new node are required");
+        }
+        pending.add(new Edit(ADD, newNode, refNode, mode, null));
+        return newNode;
+    }
+    
+    
+    /**
+     * Records the addition of a new node holding the value to the tree.  The node is
+     * created immediately so that later edits may refer to it.
+     *
+     * @param refNode The reference node, reference point within tree
+     * @param value The value for new node
+     * @param mode The node indicator, how the node will be added
+     * @return The node that will be added
+     */
+    public T add(T refNode, V value, int mode)
+    {
+        if (refNode == null)
+        {
+            throw new IllegalArgumentException("The reference node is required");
+        }
+        return add(refNode, (T) AbstractTree.getNodeFactory(refNode.getClass()).newNode(value), mode);
+    }
+    
+    
+    /**
+     * Records the removal of the node and its descendants from the tree.
+     *
+     * @param node The node to be removed
+     */
+    public void remove(T node)
+    {
+        if (node == null)
+        {
+            throw new IllegalArgumentException("The node is required");
+        }
+        pending.add(new Edit(REMOVE, node, null, 0, null));
+    }
+    
+    
+    /**
+     * Records the replacement of the node by the new node.
+     *
+     * @param oldNode The node to be replaced
+     * @param newNode The node that replaces it
+     */
+    public void replace(T oldNode, T newNode)
+    {
+        add(oldNode, newNode, Tree.PREVIOUS);
+        remove(oldNode);
+    }
+    
+    
+    /**
+     * Records the change of the value of the node.
+     *
+     * @param node The node
+     * @param value The new value
+     */
+    public void setValue(T node, V value)
+    {
+        if (node == null)
+        {
+            throw new IllegalArgumentException("The node is required");
+        }
+        pending.add(new Edit(VALUE, node, null, 0, value));
+    }
+    
+    
+    /**
+     * Applies the pending edits in the order they were recorded.  If an edit fails
+     * the edits already applied by this commit are reversed and the exception is
+     * rethrown, the pending edits are discarded in either case.
+     *
+     * @throws IllegalArgumentException If a node to be added is already in a tree
+     *             or an ancestor of its reference node
+     */
+    public void commit()
+    {
+        int mark = applied.size();
+        boolean indexed = suspendIndex();
+        try
+        {
+            for (Edit edit : pending)
+            {
+                apply(edit);
+                applied.add(edit);
+            }
+        } catch (RuntimeException e)
+        {
+            undo(mark, null);
+            throw e;
+        } finally
+        {
+            pending.clear();
+            resumeIndex(indexed);
+        }
+        
+        AbstractTree top = AbstractTree.observerOf(getRoot());
+        if (top != null)
+        {
+            List<TreeEvent> events = new ArrayList<TreeEvent>();
+            for (int index = mark; index < applied.size(); index++)
+            {
+                Edit edit = applied.get(index);
+                if (edit.type == ADD)
+                {
+                    events.add(new TreeEvent(TreeEvent.NODE_ADDED, edit.node, edit.node.getParent(), null, null, null, 1));
+                } else if (edit.type == REMOVE)
+                {
+                    events.add(new TreeEvent(TreeEvent.NODE_REMOVED, edit.node, edit.parent, null, null, null, 1));
+                }
+            }
+            fire(top, events);
+        }
+    }
+    
+    
+    /**
+     * Discards the pending edits and reverses the committed edits of the batch, in
+     * the reverse order they were applied.  Edits committed before the batch was
+     * last released are not reversed.
+     */
+    public void rollback()
+    {
+        pending.clear();
+        List<TreeEvent> events = AbstractTree.observerOf(getRoot()) != null ? new ArrayList<TreeEvent>() : null;
+        boolean indexed = suspendIndex();
+        try
+        {
+            undo(0, events);
+        } finally
+        {
+            resumeIndex(indexed);
+        }
+        
+        AbstractTree top = AbstractTree.observerOf(getRoot());
+        if (events != null && top != null)
+        {
+            fire(top, events);
+        }
+    }
+    
+    
+    /**
+     * Discards the pending edits and the log of the committed edits, which can no
+     * longer be rolled back.  The batch may record and commit further edits.
+     */
+    public void release()
+    {
+        pending.clear();
+        applied.clear();
+    }
+    
+    
+    /**
+     * Notifies the listeners of the tree of the structural edits, one event for
+     * each subtree changed.
+     */
+    private static void fire(AbstractTree top, List<TreeEvent> events)
+    {
+        for (TreeEvent event : (List<TreeEvent>) TreeEvent.coalesce((List) events))
+        {
+            AbstractTree.fire(top, event);
+        }
+    }
+    
+    
+    private void apply(Edit edit)
+    {
+        AbstractTree node = edit.node;
+        switch (edit.type)
+        {
+            case ADD:
+                if (node.getParent() != null || node.getNextSibling() != null || AbstractTree.previousSiblingOf(node) != null)
+                {
+                    throw new IllegalArgumentException("The node being added is already in a tree");
+                }
+                if (node.hasChildren())
+                {
+                    for (AbstractTree ancestor = edit.refNode; ancestor != null; ancestor = ancestor.getParent())
+                    {
+                        if (ancestor == node)
+                        {
+                            throw new IllegalArgumentException("The node being added is an ancestor of its reference node");
+                        }
+                    }
+                }
+                AbstractTree.add(edit.refNode, node, edit.mode, true);
+                break;
+            case REMOVE:
+                edit.parent = node.getParent();
+                edit.previous = AbstractTree.previousSiblingOf(node);
+                edit.next = node.getNextSibling();
+                AbstractTree.remove(node, true);
+                break;
+            case VALUE:
+                Object value = node.getValue();
+                node.setValue(edit.value);
+                edit.value = value;
+                break;
+        }
+    }
+    
+    
+    /**
+     * Reverses the applied edits down to the mark, collecting the events of the
+     * structural edits reversed if requested.
+     */
+    private void undo(int mark, List<TreeEvent> events)
+    {
+        for (int index = applied.size() - 1; index >= mark; index--)
+        {
+            Edit edit = applied.remove(index);
+            AbstractTree node = edit.node;
+            switch (edit.type)
+            {
+                case ADD:
+                    AbstractTree parent = node.getParent();
+                    if (edit.mode == Tree.PARENT)
+                    {
+                        // Put the reference node back in the place of its new parent.
+                        AbstractTree.remove(edit.refNode, true);
+                        AbstractTree.add(node, edit.refNode, Tree.NEXT, true);
+                        if (parent == null)
+                        {
+                            AbstractTree.moveListeners(node, edit.refNode);
+                        }
+                    }
+                    AbstractTree.remove(node, true);
+                    if (events != null)
+                    {
+                        events.add(new TreeEvent(TreeEvent.NODE_REMOVED, node, parent, null, null, null, 1));
+                    }
+                    break;
+                case REMOVE:
+                    if (edit.previous != null)
+                    {
+                        AbstractTree.add(edit.previous, node, Tree.NEXT, true);
+                    } else if (edit.next != null)
+                    {
+                        AbstractTree.add(edit.next, node, Tree.PREVIOUS, true);
+                    } else if (edit.parent != null)
+                    {
+                        AbstractTree.add(edit.parent, node, Tree.LASTCHILD, true);
+                    }
+                    if (events != null)
+                    {
+                        events.add(new TreeEvent(TreeEvent.NODE_ADDED, node, node.getParent(), null, null, null, 1));
+                    }
+                    break;
+                case VALUE:
+                    Object value = node.getValue();
+                    node.setValue(edit.value);
+                    edit.value = value;
+                    break;
+            }
+        }
+    }
+    
+    
+    /**
+     * Detaches the interval index of the tree, returning true if the tree was
+     * indexed.
+     */
+    private boolean suspendIndex()
+    {
+        T top = getRoot();
+        IntervalIndex.Label label = AbstractTree.intervalOf(top);
+        if (label != null && label.index.isValid() && label.index.getRoot() == top)
+        {
+            label.index.detach();
+            return true;
+        }
+        return false;
+    }
+    
+    
+    private void resumeIndex(boolean indexed)
+    {
+        if (indexed)
+        {
+            getRoot().indexIntervals();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Commits and rolls back batches of edits to an observed LinkedTree, then checks
+ * that the listeners are notified once for each changed subtree and that a
+ * released batch no longer reverses its committed edits.
+ *
+ * @author Steve Posick
+ */
+public class TreeBatchTest
+{
+    public TreeBatchTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        LinkedTree<String> root = new LinkedTree<String>("Root");
+        LinkedTree<String> a = root.addChild("A");
+        LinkedTree<String> b = root.addChild("B");
+        LinkedTree<String> a1 = a.addChild("A1");
+        LinkedTree<String> a0 = a.addChild("A0");
+        final List<TreeEvent<LinkedTree<String>, String>> events = new ArrayList<TreeEvent<LinkedTree<String>, String>>();
+        root.addTreeListener(new TreeListener<LinkedTree<String>, String>()
+        {
+            public void treeChanged(TreeEvent<LinkedTree<String>, String> event)
+            {
+                events.add(event);
+            }
+        });
+        
+        // edits beneath A and within its subtree are reported by one event for A
+        TreeBatch<LinkedTree<String>, String> batch = new TreeBatch<LinkedTree<String>, String>(root);
+        batch.add(a, "A2", Tree.LASTCHILD);
+        batch.add(a, "A3", Tree.LASTCHILD);
+        batch.add(a1, "A1a", Tree.LASTCHILD);
+        batch.remove(a0);
+        batch.add(b, "B1", Tree.LASTCHILD);
+        batch.commit();
+        check(events.size() == 2, "commit fired " + events.size() + " events");
+        check(events.get(0).getType() == TreeEvent.SUBTREE_CHANGED && events.get(0).getScope() == a && events.get(0).getCount() == 4, "subtree event " + events.get(0));
+        check(events.get(1).getType() == TreeEvent.NODE_ADDED && events.get(1).getScope() == b && events.get(1).getCount() == 1, "single event " + events.get(1));
+        check(a.getChildCount() == 3 && a0.getParent() == null && a1.hasChildren() && b.getChildCount() == 1, "commit applied the edits");
+        
+        // the rollback is reported by the same subtrees
+        events.clear();
+        batch.rollback();
+        check(events.size() == 2, "rollback fired " + events.size() + " events");
+        check(events.get(0).getScope() == b && events.get(1).getScope() == a && events.get(1).getCount() == 4, "rollback events " + events);
+        check(a.getChildCount() == 2 && a0.getParent() == a && !a1.hasChildren() && !b.hasChildren(), "rollback reversed the edits");
+        
+        // released edits are not reversed, later edits are
+        batch.add(b, "B2", Tree.LASTCHILD);
+        batch.commit();
+        batch.release();
+        batch.add(b, "B3", Tree.LASTCHILD);
+        batch.commit();
+        events.clear();
+        batch.rollback();
+        check(b.getChildCount() == 1 && b.getFirstChild().getValue().equals("B2"), "rollback reversed released edits");
+        check(events.size() == 1 && events.get(0).getType() == TreeEvent.NODE_REMOVED, "rollback after release fired " + events);
+        events.clear();
+        batch.rollback();
+        check(events.isEmpty() && b.getChildCount() == 1, "a second rollback changed the tree");
+        
+        System.out.println("TreeBatchTest passed");
+    }
+    
+    
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+}
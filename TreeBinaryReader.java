@@ -0,0 +1,151 @@
+package net.posick.tree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+/**
+ * The TreeBinaryReader reads a Tree written by the TreeBinaryWriter.  Nodes are
+ * created with the NodeFactory and appended to their parent in preorder, the
+ * only state kept is the number of children remaining at each level.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ * @see TreeBinaryWriter
+ */
+public class TreeBinaryReader<T extends AbstractTree<T, V>, V>
+{
+    private NodeFactory<T, V> factory;
+    
+    private ValueCodec<? extends V> codec;
+    
+    
+    /**
+     * Creates a TreeBinaryReader that creates nodes with the specified factory and
+     * decodes values with the specified codec.
+     * 
+     * @param factory The node factory
+     * @param codec The value codec
+     */
+    public TreeBinaryReader(NodeFactory<T, V> factory, ValueCodec<? extends V> codec)
+    {
+        this.factory = factory;
+        this.codec = codec;
+    }
+    
+    
+    /**
+     * Reads a Tree from the input stream.
+     * 
+     * @param in The input stream
+     * @return The root node of the Tree
+     * @throws IOException
+     */
+    public T read(InputStream in)
+    throws IOException
+    {
+        return read((DataInput) new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 65536)));
+    }
+    
+    
+    /**
+     * Reads a Tree from the input.
+     * 
+     * @param in The input
+     * @return The root node of the Tree
+     * @throws IOException
+     */
+    public T read(DataInput in)
+    throws IOException
+    {
+        if (in.readInt() != TreeBinaryWriter.MAGIC)
+        {
+            throw new StreamCorruptedException("Not a binary Tree");
+        }
+        int version = in.readUnsignedByte();
+        if (version != TreeBinaryWriter.VERSION)
+        {
+            throw new StreamCorruptedException("Unsupported binary Tree version " + version);
+        }
+        readVarInt(in);
+        
+        int header = readVarInt(in);
+        T root = readNode(in, header);
+        
+        int[] remaining = new int[64];
+        int depth = 0;
+        remaining[0] = header >>> 1;
+        T node = root;
+        while (depth >= 0)
+        {
+            if (remaining[depth] == 0)
+            {
+                node = node.getParent();
+                depth--;
+            } else
+            {
+                remaining[depth]--;
+                header = readVarInt(in);
+                T child = node.add(readNode(in, header), Tree.LASTCHILD);
+                if (header >>> 1 > 0)
+                {
+                    if (++depth == remaining.length)
+                    {
+                        remaining = Arrays.copyOf(remaining, depth * 2);
+                    }
+                    remaining[depth] = header >>> 1;
+                    node = child;
+                }
+            }
+        }
+        
+        return root;
+    }
+    
+    
+    private T readNode(DataInput in, int header)
+    throws IOException
+    {
+        return factory.newNode((header & 1) != 0 ? codec.read(in) : null);
+    }
+    
+    
+    static int readVarInt(DataInput in)
+    throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length integer");
+    }
+    
+    
+    static long readVarLong(DataInput in)
+    throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Malformed variable length integer");
+    }
+}
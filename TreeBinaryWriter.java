@@ -0,0 +1,196 @@
+package net.posick.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The TreeBinaryWriter writes a Tree in a compact binary format.  The format is
+ * a header followed by the nodes in preorder, each node is written as a variable
+ * length header holding its number of children and whether it has a value,
+ * followed by the value encoded by the ValueCodec.
+ * <p>
+ * <pre>
+ *   int     magic "LTRB"
+ *   byte    version
+ *   varint  number of nodes
+ *   node*   varint (children &lt;&lt; 1 | has value), value
+ * </pre>
+ * The Tree is walked iteratively using the parent links, so neither deep trees
+ * nor long sibling chains are limited by the stack.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <V> The value contained within the Tree node
+ * @see TreeBinaryReader
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public class TreeBinaryWriter<V>
+{
+    static final int MAGIC = 0x4C545242;
+    
+    static final int VERSION = 1;
+    
+    private ValueCodec<? super V> codec;
+    
+    
+    /**
+     * Creates a TreeBinaryWriter that encodes values with the specified codec.
+     * 
+     * @param codec The value codec
+     */
+    public TreeBinaryWriter(ValueCodec<? super V> codec)
+    {
+        this.codec = codec;
+    }
+    
+    
+    /**
+     * Writes the tree to the output stream.  The root node and its descendants are
+     * written, the siblings of the root node are not.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output stream
+     * @throws IOException
+     */
+    public void write(Tree<?, V> tree, OutputStream out)
+    throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 65536));
+        write(tree, (DataOutput) data);
+        data.flush();
+    }
+    
+    
+    /**
+     * Writes the tree to the output.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output
+     * @throws IOException
+     */
+    public void write(Tree<?, V> tree, DataOutput out)
+    throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        writeVarInt(out, countNodes(tree));
+        
+        Preorder walk = new Preorder(tree);
+        for (Tree node = tree; node != null; node = walk.next())
+        {
+            V value = (V) node.getValue();
+            writeVarInt(out, countChildren(node) << 1 | (value != null ? 1 : 0));
+            if (value != null)
+            {
+                codec.write(out, value);
+            }
+        }
+    }
+    
+    
+    /**
+     * The preorder walk of a tree.  The walk ends by the depth of the current node
+     * beneath the root node rather than by the identity of the root node, as views
+     * such as the IndexedTree and TreeSnapshot create a new node per navigation.
+     */
+    static final class Preorder
+    {
+        private Tree node;
+        
+        private int depth;
+        
+        
+        Preorder(Tree tree)
+        {
+            this.node = tree;
+        }
+        
+        
+        /**
+         * Returns the node following the current node in preorder, within the tree.
+         * 
+         * @return The next node or null
+         */
+        Tree next()
+        {
+            Tree child = node.getFirstChild();
+            if (child != null)
+            {
+                depth++;
+                return node = child;
+            }
+            
+            while (depth > 0)
+            {
+                Tree sibling = node.getNextSibling();
+                if (sibling != null)
+                {
+                    return node = sibling;
+                }
+                node = node.getParent();
+                depth--;
+            }
+            return node = null;
+        }
+    }
+    
+    
+    static int countNodes(Tree tree)
+    {
+        if (tree instanceof AbstractTree)
+        {
+            return 1 + ((AbstractTree) tree).getDescendantCount();
+        }
+        
+        int count = 0;
+        Preorder walk = new Preorder(tree);
+        for (Tree node = tree; node != null; node = walk.next())
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    
+    static int countChildren(Tree node)
+    {
+        if (node instanceof AbstractTree)
+        {
+            return ((AbstractTree) node).getChildCount();
+        }
+        
+        int count = 0;
+        for (Tree child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            count++;
+        }
+        return count;
+    }
+    
+    
+    static void writeVarInt(DataOutput out, int value)
+    throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    
+    static void writeVarLong(DataOutput out, long value)
+    throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
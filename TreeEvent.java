@@ -0,0 +1,249 @@
+package net.posick.tree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TreeEvent describes a change made to a tree.  The scope of an event is the
+ * node whose subtree was changed, the parent of a node that was added, removed or
+ * replaced, or the node whose value was changed.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ * @see TreeListener
+ */
+public class TreeEvent<T extends Tree<T, V>, V>
+{
+    /**
+     * A node and its descendants were added to the tree.
+     */
+    public static final int NODE_ADDED = 0;
+    
+    /**
+     * A node and its descendants were removed from the tree.
+     */
+    public static final int NODE_REMOVED = 1;
+    
+    /**
+     * A node was replaced by another node.
+     */
+    public static final int NODE_REPLACED = 2;
+    
+    /**
+     * The value of a node was changed.
+     */
+    public static final int VALUE_CHANGED = 3;
+    
+    /**
+     * Several changes were made within the subtree of a node, reported by a
+     * <code>CoalescingTreeListener</code> in place of the individual events.
+     */
+    public static final int SUBTREE_CHANGED = 4;
+    
+    private final int type;
+    
+    private final T node;
+    
+    private final T parent;
+    
+    private final T replaced;
+    
+    private final V oldValue;
+    
+    private final V newValue;
+    
+    private final int count;
+    
+    
+    TreeEvent(int type, T node, T parent, T replaced, V oldValue, V newValue, int count)
+    {
+        this.type = type;
+        this.node = node;
+        this.parent = parent;
+        this.replaced = replaced;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+        this.count = count;
+    }
+    
+    
+    /**
+     * Returns the type of the change, <code>NODE_ADDED</code>, <code>NODE_REMOVED</code>,
+     * <code>NODE_REPLACED</code>, <code>VALUE_CHANGED</code> or <code>SUBTREE_CHANGED</code>.
+     * 
+     * @return The type of the change
+     */
+    public int getType()
+    {
+        return type;
+    }
+    
+    
+    /**
+     * Returns the node that was added, removed or replacing another node, whose
+     * value was changed, or whose subtree was changed.
+     * 
+     * @return The node
+     */
+    public T getNode()
+    {
+        return node;
+    }
+    
+    
+    /**
+     * Returns the parent of the node when the change was made, null for a node at
+     * the top level of the tree.
+     * 
+     * @return The parent
+     */
+    public T getParent()
+    {
+        return parent;
+    }
+    
+    
+    /**
+     * Returns the node that was replaced by a <code>NODE_REPLACED</code> change.
+     * 
+     * @return The replaced node or null
+     */
+    public T getReplaced()
+    {
+        return replaced;
+    }
+    
+    
+    /**
+     * Returns the value before a <code>VALUE_CHANGED</code> change.
+     * 
+     * @return The previous value
+     */
+    public V getOldValue()
+    {
+        return oldValue;
+    }
+    
+    
+    /**
+     * Returns the value after a <code>VALUE_CHANGED</code> change.
+     * 
+     * @return The new value
+     */
+    public V getNewValue()
+    {
+        return newValue;
+    }
+    
+    
+    /**
+     * Returns the number of changes the event reports, greater than one for a
+     * <code>SUBTREE_CHANGED</code> event.
+     * 
+     * @return The number of changes
+     */
+    public int getCount()
+    {
+        return count;
+    }
+    
+    
+    /**
+     * Returns the node whose subtree was changed.
+     * 
+     * @return The scope of the change
+     */
+    public T getScope()
+    {
+        if (type == VALUE_CHANGED || type == SUBTREE_CHANGED || parent == null)
+        {
+            return node;
+        }
+        return parent;
+    }
+    
+    
+    /**
+     * Coalesces the events by the subtrees they changed.  The events whose scopes
+     * lie beneath the scope of another event are reported with the topmost of
+     * those scopes.  A subtree with one change is reported by its event, a subtree
+     * with several changes by a <code>SUBTREE_CHANGED</code> event for the scope
+     * counting the changes.
+     * 
+     * @param events The events in the order they occurred
+     * @return The coalesced events, in the order their subtrees were first changed
+     */
+    static <T extends Tree<T, V>, V> List<TreeEvent<T, V>> coalesce(List<TreeEvent<T, V>> events)
+    {
+        List<T> scopes = new ArrayList<T>();
+        Map<T, List<TreeEvent<T, V>>> byScope = new IdentityHashMap<T, List<TreeEvent<T, V>>>();
+        for (TreeEvent<T, V> event : events)
+        {
+            T scope = event.getScope();
+            List<TreeEvent<T, V>> list = byScope.get(scope);
+            if (list == null)
+            {
+                list = new ArrayList<TreeEvent<T, V>>(1);
+                byScope.put(scope, list);
+                scopes.add(scope);
+            }
+            list.add(event);
+        }
+        
+        List<T> tops = new ArrayList<T>();
+        Map<T, List<TreeEvent<T, V>>> byTop = new IdentityHashMap<T, List<TreeEvent<T, V>>>();
+        for (T scope : scopes)
+        {
+            T top = scope;
+            for (T ancestor = scope.getParent(); ancestor != null; ancestor = ancestor.getParent())
+            {
+                if (byScope.containsKey(ancestor))
+                {
+                    top = ancestor;
+                }
+            }
+            
+            List<TreeEvent<T, V>> list = byTop.get(top);
+            if (list == null)
+            {
+                list = new ArrayList<TreeEvent<T, V>>(1);
+                byTop.put(top, list);
+                tops.add(top);
+            }
+            list.addAll(byScope.get(scope));
+        }
+        
+        List<TreeEvent<T, V>> coalesced = new ArrayList<TreeEvent<T, V>>(tops.size());
+        for (T top : tops)
+        {
+            List<TreeEvent<T, V>> list = byTop.get(top);
+            if (list.size() == 1)
+            {
+                coalesced.add(list.get(0));
+            } else
+            {
+                int count = 0;
+                for (TreeEvent<T, V> event : list)
+                {
+                    count += event.getCount();
+                }
+                coalesced.add(new TreeEvent<T, V>(SUBTREE_CHANGED, top, null, null, null, null, count));
+            }
+        }
+        return coalesced;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        String[] names = {"NODE_ADDED", "NODE_REMOVED", "NODE_REPLACED", "VALUE_CHANGED", "SUBTREE_CHANGED"};
+        return getClass().getSimpleName() + " [" + names[type] + " " + (node != null ? node.getValue() : null) + (count > 1 ? " x" + count : "") + "]";
+    }
+}
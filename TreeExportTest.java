@@ -0,0 +1,138 @@
+package net.posick.tree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Round trips the Tree implementations, views and snapshots through the binary,
+ * XML and mapped file formats, exporting both whole trees and subtrees with
+ * siblings.
+ *
+ * @author Steve Posick
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class TreeExportTest
+{
+    public TreeExportTest()
+    {
+    }
+    
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args)
+    throws Exception
+    {
+        LinkedTree<String> linked = new LinkedTree<String>("Root");
+        CompactTree<String> compact = new CompactTree<String>("Root");
+        populate(linked);
+        populate(compact);
+        
+        // The snapshot keeps the tree as it was before the tree is changed.
+        TreeSnapshot<String> snapshot = linked.snapshot();
+        linked.getFirstChild().remove();
+        linked.getFirstChild().getFirstChild().add("Child 2-1-2", Tree.NEXT);
+        linked.add("Child 4", Tree.LASTCHILD).add("Child 4-1", Tree.LASTCHILD);
+        
+        Path file = Files.createTempFile("tree", ".map");
+        try
+        {
+            MappedTree.write(linked, file, ValueCodec.STRING);
+            MappedTree<String> mapped = MappedTree.open(file, ValueCodec.STRING);
+            
+            Tree[] trees = {linked, compact, mapped, snapshot};
+            for (Tree tree : trees)
+            {
+                roundTrip(tree);
+                roundTrip(tree.getFirstChild().getNextSibling());
+                roundTrip(tree.getFirstChild().getFirstChild());
+            }
+        } finally
+        {
+            snapshot.close();
+            Files.deleteIfExists(file);
+        }
+        System.out.println("TreeExportTest passed");
+    }
+    
+    
+    private static void populate(Tree tree)
+    {
+        for (int i = 1; i <= 3; i++)
+        {
+            Tree child = tree.add("Child " + i, Tree.LASTCHILD);
+            for (int j = 1; j <= 3; j++)
+            {
+                Tree grandchild = child.add("Child " + i + "-" + j, Tree.LASTCHILD);
+                grandchild.add("Child " + i + "-" + j + "-1", Tree.LASTCHILD);
+            }
+        }
+    }
+    
+    
+    /**
+     * Exports the tree in each format, reads it back and compares the result with
+     * the tree.
+     */
+    static void roundTrip(Tree tree)
+    throws IOException, XMLStreamException
+    {
+        String expected = describe(tree);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AbstractTree.writeBinary(tree, out, ValueCodec.STRING);
+        check(expected, AbstractTree.readBinary(new ByteArrayInputStream(out.toByteArray()), LinkedTree.class, ValueCodec.STRING), "binary");
+        
+        out = new ByteArrayOutputStream();
+        AbstractTree.writeXML(tree, out);
+        check(expected, AbstractTree.readXML(new ByteArrayInputStream(out.toByteArray()), LinkedTree.class), "XML");
+        
+        Path copy = Files.createTempFile("tree", ".map");
+        try
+        {
+            MappedTree.write(tree, copy, ValueCodec.STRING);
+            check(expected, MappedTree.open(copy, ValueCodec.STRING), "mapped");
+        } finally
+        {
+            Files.deleteIfExists(copy);
+        }
+    }
+    
+    
+    private static void check(String expected, Tree tree, String format)
+    {
+        String actual = describe(tree);
+        if (!expected.equals(actual))
+        {
+            throw new AssertionError(format + " round trip of " + tree.getClass().getSimpleName() + " failed, expected " + expected + " but was " + actual);
+        }
+    }
+    
+    
+    /**
+     * Describes the values and depths of the node and its descendants in preorder.
+     */
+    static String describe(Tree tree)
+    {
+        StringBuilder buffer = new StringBuilder();
+        describe(tree, 0, buffer);
+        return buffer.toString();
+    }
+    
+    
+    private static void describe(Tree node, int depth, StringBuilder buffer)
+    {
+        buffer.append(depth).append(':').append(node.getValue()).append(' ');
+        for (Tree child = node.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            describe(child, depth + 1, buffer);
+        }
+    }
+}
@@ -2,11 +2,17 @@ package net.posick.tree;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Stack;
 
+/**
+ * The TreeIterator iterates over a node, its siblings and their descendants in
+ * preorder.  The walk follows the parent links back up the tree, counting the
+ * depth below the starting level, so no stack is allocated or locked.
+ * 
+ * @author Steve Posick
+ */
 public class TreeIterator<T extends Tree<T, V>, V> implements Iterator<T>
 {
-    private Stack<T> stack = new Stack<T>();
+    private int depth;
     
     private boolean recursive;
     
@@ -70,44 +76,23 @@ public class TreeIterator<T extends Tree<T, V>, V> implements Iterator<T>
             {
                 if (currentNode.getFirstChild() != null)
                 {
-                    stack.push(currentNode);
+                    depth++;
                     currentNode = currentNode.getFirstChild();
-                } else if (currentNode.getNextSibling() != null)
+                } else
                 {
-                    if (stack.size() > 0)
+                    // Climb until a node with a following sibling is found.
+                    while (depth > 0 && currentNode.getNextSibling() == null)
                     {
-                        currentNode = currentNode.getNextSibling();
-                    } else
-                    {
-                        if (siblings)
-                        {
-                            currentNode = currentNode.getNextSibling();
-                        } else
-                        {
-                            currentNode = null;
-                        }
+                        currentNode = currentNode.getParent();
+                        depth--;
                     }
-                } else
-                {
-                    currentNode = null;
                     
-                    while (stack.size() > 0 && currentNode == null)
+                    if (depth > 0 || siblings)
+                    {
+                        currentNode = currentNode.getNextSibling();
+                    } else
                     {
-                        currentNode = stack.pop();
-                        
-                        if (stack.size() > 0)
-                        {
-                            currentNode = currentNode.getNextSibling();
-                        } else
-                        {
-                            if (siblings)
-                            {
-                                currentNode = currentNode.getNextSibling();
-                            } else
-                            {
-                                currentNode = null;
-                            }
-                        }
+                        currentNode = null;
                     }
                 }
             } else
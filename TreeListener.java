@@ -0,0 +1,24 @@
+package net.posick.tree;
+
+/**
+ * The TreeListener is notified of the changes made to the tree of the root node
+ * it was added to, see <code>AbstractTree.addTreeListener</code>.  Listeners are
+ * notified by the thread changing the tree, after each change.  Listeners that
+ * must not delay the writer should be wrapped in a
+ * <code>CoalescingTreeListener</code>.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ * @see TreeEvent
+ */
+public interface TreeListener<T extends Tree<T, V>, V>
+{
+    /**
+     * Called after the tree was changed.
+     * 
+     * @param event The change
+     */
+    public void treeChanged(TreeEvent<T, V> event);
+}
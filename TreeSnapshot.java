@@ -0,0 +1,509 @@
+package net.posick.tree;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The TreeSnapshot is a read only view of an AbstractTree as it was when the
+ * snapshot was taken, see <code>AbstractTree.snapshot()</code>.  Taking a snapshot
+ * copies nothing, a node changed while the snapshot is open keeps its previous
+ * links and value, which the snapshot reads in place of the current ones.  A
+ * snapshot may be read by any number of threads while the tree is changed.
+ * <p>
+ * Closing a snapshot, from any of its nodes, releases the states kept for it.  An
+ * unreachable snapshot is closed when it is garbage collected, but closing it
+ * when it is no longer read keeps the states from accumulating until then.
+ *
+ * @author Steve Posick
+ *
+ * @param <V> The value contained within the Tree node
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public class TreeSnapshot<V> implements Tree<TreeSnapshot<V>, V>, AutoCloseable
+{
+    private static final Cleaner CLEANER = Cleaner.create();
+    
+    private final Session session;
+    
+    private final AbstractTree node;
+    
+    private final AbstractTree.NodeState state;
+    
+    
+    private TreeSnapshot(Session session, AbstractTree node, AbstractTree.NodeState state)
+    {
+        this.session = session;
+        this.node = node;
+        this.state = state;
+    }
+    
+    
+    /**
+     * Opens a snapshot of the tree the node belongs to, returning the node in the
+     * snapshot.
+     *
+     * @param node The node
+     * @return The node in the snapshot
+     */
+    static <V> TreeSnapshot<V> open(AbstractTree<?, V> node)
+    {
+        AbstractTree.Snapshots snapshots = AbstractTree.snapshotsOf(node);
+        Session session = new Session(snapshots, AbstractTree.openSnapshot(snapshots));
+        return session.node(node);
+    }
+    
+    
+    /**
+     * Closes the snapshot this node belongs to.  Nodes of a closed snapshot can no
+     * longer be navigated.
+     */
+    public void close()
+    {
+        session.cleanable.clean();
+    }
+    
+    
+    /**
+     * Returns true if the snapshot this node belongs to was closed.
+     *
+     * @return True if the snapshot was closed
+     */
+    public boolean isClosed()
+    {
+        return session.release.closed;
+    }
+    
+    
+    /**
+     * Returns the node of the tree this snapshot node was read from.  The node
+     * holds the current state, which may differ from the snapshot.
+     *
+     * @return The node of the tree
+     */
+    public AbstractTree<?, V> getNode()
+    {
+        return node;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getParent()
+     */
+    public TreeSnapshot<V> getParent()
+    {
+        return session.node(state.parent);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getFirstChild()
+     */
+    public TreeSnapshot<V> getFirstChild()
+    {
+        return session.node(state.child);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getNextSibling()
+     */
+    public TreeSnapshot<V> getNextSibling()
+    {
+        return session.node(state.nextSibling);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getPreviousSibling()
+     */
+    public TreeSnapshot<V> getPreviousSibling()
+    {
+        return session.node(state.previousSibling);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getValue()
+     */
+    public V getValue()
+    {
+        return (V) state.value;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChild(V)
+     */
+    public TreeSnapshot<V> getChild(V value)
+    {
+        return value != null ? find(state.child, value, null) : null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSibling(V)
+     */
+    public TreeSnapshot<V> getSibling(V value)
+    {
+        if (value == null)
+        {
+            return null;
+        } else if (state.parent != null)
+        {
+            return find(session.state(state.parent).child, value, node);
+        }
+        
+        TreeSnapshot<V> sibling = find(state.nextSibling, value, null);
+        for (AbstractTree current = state.previousSibling; sibling == null && current != null; )
+        {
+            AbstractTree.NodeState currentState = session.state(current);
+            if (value.equals(currentState.value))
+            {
+                sibling = new TreeSnapshot<V>(session, current, currentState);
+            }
+            current = currentState.previousSibling;
+        }
+        return sibling;
+    }
+    
+    
+    /**
+     * Returns the first node holding the value in the list of siblings starting
+     * with the node, ignoring one node.
+     */
+    private TreeSnapshot<V> find(AbstractTree current, V value, AbstractTree ignore)
+    {
+        while (current != null)
+        {
+            AbstractTree.NodeState currentState = session.state(current);
+            if (current != ignore && value.equals(currentState.value))
+            {
+                return new TreeSnapshot<V>(session, current, currentState);
+            }
+            current = currentState.nextSibling;
+        }
+        return null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#hasChildren()
+     */
+    public boolean hasChildren()
+    {
+        return state.child != null;
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getChildren()
+     */
+    public List<TreeSnapshot<V>> getChildren()
+    {
+        List<TreeSnapshot<V>> children = new ArrayList<TreeSnapshot<V>>();
+        for (TreeSnapshot<V> child = getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            children.add(child);
+        }
+        return Collections.unmodifiableList(children);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getSiblings()
+     */
+    public List<TreeSnapshot<V>> getSiblings()
+    {
+        List<TreeSnapshot<V>> siblings = new ArrayList<TreeSnapshot<V>>();
+        if (state.parent != null)
+        {
+            for (TreeSnapshot<V> sibling = getParent().getFirstChild(); sibling != null; sibling = sibling.getNextSibling())
+            {
+                if (sibling.node != node)
+                {
+                    siblings.add(sibling);
+                }
+            }
+        } else
+        {
+            for (TreeSnapshot<V> sibling = getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling())
+            {
+                siblings.add(0, sibling);
+            }
+            for (TreeSnapshot<V> sibling = getNextSibling(); sibling != null; sibling = sibling.getNextSibling())
+            {
+                siblings.add(sibling);
+            }
+        }
+        return Collections.unmodifiableList(siblings);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getDescendants()
+     */
+    public List<TreeSnapshot<V>> getDescendants()
+    {
+        final List<TreeSnapshot<V>> descendants = new ArrayList<TreeSnapshot<V>>();
+        TreeSnapshot<V> child = getFirstChild();
+        if (child != null)
+        {
+            child.traverse(new TraverseAction<TreeSnapshot<V>, V>()
+            {
+                public int action(TreeSnapshot<V> node, int level)
+                {
+                    descendants.add(node);
+                    return TraverseAction.CONTINUE;
+                }
+            });
+        }
+        return Collections.unmodifiableList(descendants);
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#getRoot()
+     */
+    public TreeSnapshot<V> getRoot()
+    {
+        TreeSnapshot<V> root = this;
+        for (TreeSnapshot<V> parent = getParent(); parent != null; parent = parent.getParent())
+        {
+            root = parent;
+        }
+        return root;
+    }
+    
+    
+    /**
+     * Traverses the snapshot using this node as a starting point.  The traverse
+     * action is executed for each node encountered.  The walk follows the parent
+     * links back up the tree, so the depth of the tree is not limited.
+     *
+     * @param action The action to perform for each node, flow control
+     */
+    public void traverse(TraverseAction<TreeSnapshot<V>, V> action)
+    {
+        TreeSnapshot<V> current = this;
+        int level = 1;
+        
+        while (current != null)
+        {
+            int result = action.action(current, level);
+            if (result == TraverseAction.STOP_TREE)
+            {
+                return;
+            }
+            
+            TreeSnapshot<V> next = result == TraverseAction.CONTINUE ? current.getFirstChild() : null;
+            if (next != null)
+            {
+                level++;
+            } else
+            {
+                while ((next = current.getNextSibling()) == null && level > 1)
+                {
+                    current = current.getParent();
+                    level--;
+                }
+            }
+            current = next;
+        }
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setParent(T)
+     */
+    public void setParent(TreeSnapshot<V> parent)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setFirstChild(T)
+     */
+    public void setFirstChild(TreeSnapshot<V> child)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setNextSibling(T)
+     */
+    public void setNextSibling(TreeSnapshot<V> sibling)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setPreviousSibling(T)
+     */
+    public void setPreviousSibling(TreeSnapshot<V> sibling)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(T, int)
+     */
+    public TreeSnapshot<V> add(TreeSnapshot<V> newNode, int mode)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#add(V, int)
+     */
+    public TreeSnapshot<V> add(V value, int mode)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#replace(T)
+     */
+    public void replace(TreeSnapshot<V> newNode)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#remove()
+     */
+    public void remove()
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /* (non-Javadoc)
+     * @see net.posick.tree.Tree#setValue(V)
+     */
+    public void setValue(V value)
+    {
+        throw new UnsupportedOperationException("Tree snapshots are read only");
+    }
+    
+    
+    /**
+     * Returns true if the object is the same node of the same snapshot.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object object)
+    {
+        if (object instanceof TreeSnapshot)
+        {
+            TreeSnapshot that = (TreeSnapshot) object;
+            return session == that.session && node == that.node;
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+        return System.identityHashCode(node);
+    }
+    
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        final StringBuilder buffer = new StringBuilder();
+        
+        getRoot().traverse(new TraverseAction<TreeSnapshot<V>, V>()
+        {
+            public int action(TreeSnapshot<V> node, int level)
+            {
+                for (int index = 1; index < level; index++)
+                {
+                    buffer.append("\t");
+                }
+                buffer.append(node.node.getClass().getSimpleName()).append(" [").append(node.getValue()).append("]\n");
+                return TraverseAction.CONTINUE;
+            }
+        });
+        
+        return buffer.toString();
+    }
+    
+    
+    /**
+     * A snapshot, shared by all of its nodes.  The snapshot is released when it is
+     * closed or becomes unreachable.
+     */
+    private static final class Session
+    {
+        private final Release release;
+        
+        private final Cleaner.Cleanable cleanable;
+        
+        
+        private Session(AbstractTree.Snapshots snapshots, long epoch)
+        {
+            this.release = new Release(snapshots, epoch);
+            this.cleanable = CLEANER.register(this, release);
+        }
+        
+        
+        private AbstractTree.NodeState state(AbstractTree node)
+        {
+            AbstractTree.NodeState state = release.closed ? null : AbstractTree.stateOf(node, release.epoch);
+            if (state == null || release.closed)
+            {
+                throw new IllegalStateException("The snapshot has been closed");
+            }
+            return state;
+        }
+        
+        
+        private <V> TreeSnapshot<V> node(AbstractTree node)
+        {
+            return node != null ? new TreeSnapshot<V>(this, node, state(node)) : null;
+        }
+    }
+    
+    
+    /**
+     * Closes the epoch of a snapshot, must not refer to the Session.
+     */
+    private static final class Release implements Runnable
+    {
+        private final AbstractTree.Snapshots snapshots;
+        
+        private final long epoch;
+        
+        private volatile boolean closed;
+        
+        
+        private Release(AbstractTree.Snapshots snapshots, long epoch)
+        {
+            this.snapshots = snapshots;
+            this.epoch = epoch;
+        }
+        
+        
+        public void run()
+        {
+            closed = true;
+            AbstractTree.closeSnapshot(snapshots, epoch);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package net.posick.tree;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * The TreeSpliterator walks a run of sibling nodes, and optionally their
+ * descendants in preorder.  The run is split between siblings, a run of a single
+ * node is split into the node and the run of its children, so each part of a
+ * split is a whole number of subtrees and its exact size is known from the
+ * descendant counts maintained by the AbstractTree.
+ * <p>
+ * The counts are validated when the TreeSpliterator is created, the parts of a
+ * split only read the tree and can be traversed concurrently.  The tree must not
+ * be modified during the traversal.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ */
+class TreeSpliterator<T extends AbstractTree<T, ?>> implements Spliterator<T>
+{
+    private final boolean recursive;
+    
+    private final T ignore;
+    
+    private T head;
+    
+    private T root;
+    
+    private T next;
+    
+    private int count;
+    
+    private long size;
+    
+    private long consumed;
+    
+    
+    /**
+     * Creates a TreeSpliterator over the node, or the node and its following siblings.
+     * 
+     * @param first The first node
+     * @param siblings True to include the following siblings of the first node
+     * @param recursive True to include the descendants of the nodes
+     * @param ignore The node to leave out or null
+     */
+    TreeSpliterator(T first, boolean siblings, boolean recursive, T ignore)
+    {
+        this.recursive = recursive;
+        this.ignore = ignore;
+        
+        for (T node = first; node != null; node = siblings ? node.getNextSibling() : null)
+        {
+            if (node != ignore)
+            {
+                count++;
+                size += recursive ? 1 + node.getDescendantCount() : 1;
+            }
+        }
+        root = next = count > 0 ? skip(first) : null;
+    }
+    
+    
+    private TreeSpliterator(TreeSpliterator<T> spliterator, T head, int count, long size)
+    {
+        this.recursive = spliterator.recursive;
+        this.ignore = spliterator.ignore;
+        this.head = head;
+        this.root = count > 0 ? spliterator.root : null;
+        this.next = count > 0 ? spliterator.next : null;
+        this.count = count;
+        this.size = size;
+        this.consumed = count > 0 ? spliterator.consumed : 0;
+    }
+    
+    
+    private T skip(T node)
+    {
+        return node != null && node == ignore ? node.getNextSibling() : node;
+    }
+    
+    
+    private long weight(T node)
+    {
+        return recursive ? 1 + node.getDescendantCount() : 1;
+    }
+    
+    
+    /**
+     * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+     */
+    public boolean tryAdvance(Consumer<? super T> action)
+    {
+        T node;
+        if (head != null)
+        {
+            node = head;
+            head = null;
+        } else if (count > 0)
+        {
+            node = next;
+            advance();
+        } else
+        {
+            return false;
+        }
+        
+        size--;
+        action.accept(node);
+        return true;
+    }
+    
+    
+    private void advance()
+    {
+        T node = next;
+        consumed++;
+        if (recursive && node.getFirstChild() != null)
+        {
+            next = node.getFirstChild();
+            return;
+        }
+        
+        while (node != root && node.getNextSibling() == null)
+        {
+            node = node.getParent();
+        }
+        if (node != root)
+        {
+            next = node.getNextSibling();
+        } else if (--count > 0)
+        {
+            root = next = skip(root.getNextSibling());
+            consumed = 0;
+        } else
+        {
+            root = next = null;
+        }
+    }
+    
+    
+    /**
+     * @see java.util.Spliterator#trySplit()
+     */
+    public Spliterator<T> trySplit()
+    {
+        if (head != null || count == 0)
+        {
+            return null;
+        }
+        
+        if (count > 1)
+        {
+            // The prefix takes the current subtree and the siblings up to half the size.
+            T member = root;
+            long prefix = -consumed;
+            int members = 0;
+            do
+            {
+                prefix += weight(member);
+                members++;
+                member = skip(member.getNextSibling());
+            } while (members < count - 1 && prefix < size / 2);
+            
+            TreeSpliterator<T> split = new TreeSpliterator<T>(this, null, members, prefix);
+            root = next = member;
+            count -= members;
+            size -= prefix;
+            consumed = 0;
+            return split;
+        } else if (recursive && consumed == 0 && root.getFirstChild() != null)
+        {
+            // The prefix is the single node, the run becomes its children.
+            TreeSpliterator<T> split = new TreeSpliterator<T>(this, root, 0, 1);
+            count = root.getChildCount();
+            root = next = root.getFirstChild();
+            size--;
+            return split;
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * @see java.util.Spliterator#estimateSize()
+     */
+    public long estimateSize()
+    {
+        return size;
+    }
+    
+    
+    /**
+     * @see java.util.Spliterator#characteristics()
+     */
+    public int characteristics()
+    {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+}
@@ -12,6 +12,12 @@ public class TreeUtils
      */
     public static <T extends Tree> T add(T refNode, T newNode, int mode)
     {
+        if (refNode instanceof AbstractTree && newNode instanceof AbstractTree)
+        {
+            // Keep the cached links and counts of the AbstractTree consistent
+            return (T) AbstractTree.add((AbstractTree) refNode, (AbstractTree) newNode, mode);
+        }
+        
         switch (mode)
         {
             case Tree.PARENT:
@@ -123,6 +129,12 @@ public class TreeUtils
             return;
         }
         
+        if (oldNode instanceof AbstractTree && (newNode == null || newNode instanceof AbstractTree))
+        {
+            AbstractTree.replace((AbstractTree) oldNode, (AbstractTree) newNode);
+            return;
+        }
+        
         if (newNode == null)
         {
             remove(oldNode);
@@ -165,6 +177,12 @@ public class TreeUtils
             return;
         }
         
+        if (refNode instanceof AbstractTree)
+        {
+            AbstractTree.remove((AbstractTree) refNode);
+            return;
+        }
+        
         if (refNode.getParent() != null && refNode.getParent().getFirstChild() == refNode)
         {
             refNode.getParent().setFirstChild(refNode.getNextSibling());
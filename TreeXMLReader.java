@@ -0,0 +1,224 @@
+package net.posick.tree;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The TreeXMLReader builds a Tree from XML using StAX.  The XML is expected to
+ * have the structure of the JAXB serialized form of the Tree, as written by
+ * <code>AbstractTree.toXML</code> or the TreeXMLWriter.
+ * <p>
+ * Nodes are created with the NodeFactory and appended to their parent as their
+ * start elements are read, so the Tree is linked in document order without
+ * holding the document in memory.  Values of the XML Schema built-in types are
+ * converted to the matching Java type, all other values are read as strings.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <T> The Tree node type.
+ * @param <V> The value contained within the Tree node
+ * @see TreeXMLWriter
+ */
+@SuppressWarnings("unchecked")
+public class TreeXMLReader<T extends AbstractTree<T, V>, V>
+{
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    
+    static
+    {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+    
+    private NodeFactory<T, V> factory;
+    
+    
+    /**
+     * Creates a TreeXMLReader that creates nodes with the specified factory.
+     * 
+     * @param factory The node factory
+     */
+    public TreeXMLReader(NodeFactory<T, V> factory)
+    {
+        this.factory = factory;
+    }
+    
+    
+    /**
+     * Reads a Tree from the XML document read from the input stream.
+     * 
+     * @param in The input stream
+     * @return The root node of the Tree
+     * @throws XMLStreamException
+     */
+    public T read(InputStream in)
+    throws XMLStreamException
+    {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try
+        {
+            return read(reader);
+        } finally
+        {
+            reader.close();
+        }
+    }
+    
+    
+    /**
+     * Reads a Tree from the XML document read from the reader.
+     * 
+     * @param in The reader
+     * @return The root node of the Tree
+     * @throws XMLStreamException
+     */
+    public T read(Reader in)
+    throws XMLStreamException
+    {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try
+        {
+            return read(reader);
+        } finally
+        {
+            reader.close();
+        }
+    }
+    
+    
+    /**
+     * Reads a Tree from the next element of the stream reader.  On return the
+     * stream reader is positioned at the end element of the Tree.
+     * 
+     * @param reader The stream reader
+     * @return The root node of the Tree
+     * @throws XMLStreamException
+     */
+    public T read(XMLStreamReader reader)
+    throws XMLStreamException
+    {
+        while (!reader.isStartElement())
+        {
+            reader.next();
+        }
+        
+        T root = factory.newNode(null);
+        T node = root;
+        while (node != null)
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    String name = reader.getLocalName();
+                    if (TreeXMLWriter.NODE.equals(name))
+                    {
+                        node = node.add(factory.newNode(null), Tree.LASTCHILD);
+                    } else if (TreeXMLWriter.VALUE.equals(name))
+                    {
+                        String type = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+                        node.setValue((V) parseValue(type, reader.getElementText()));
+                    } else
+                    {
+                        skipElement(reader);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    node = node == root ? null : node.getParent();
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+            }
+        }
+        
+        return root;
+    }
+    
+    
+    private static void skipElement(XMLStreamReader reader)
+    throws XMLStreamException
+    {
+        int depth = 1;
+        while (depth > 0)
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                depth--;
+            }
+        }
+    }
+    
+    
+    /**
+     * Converts the text of a value to the Java type matching its schema type.
+     * 
+     * @param type The qualified schema type of the value or null
+     * @param text The text of the value
+     * @return The value
+     */
+    static Object parseValue(String type, String text)
+    {
+        if (type == null)
+        {
+            return text;
+        }
+        
+        String localType = type.substring(type.indexOf(':') + 1);
+        text = localType.equals("string") ? text : text.trim();
+        if (localType.equals("int"))
+        {
+            return Integer.valueOf(text);
+        } else if (localType.equals("long"))
+        {
+            return Long.valueOf(text);
+        } else if (localType.equals("double"))
+        {
+            return Double.valueOf(parseFloating(text));
+        } else if (localType.equals("float"))
+        {
+            return Float.valueOf((float) parseFloating(text));
+        } else if (localType.equals("short"))
+        {
+            return Short.valueOf(text);
+        } else if (localType.equals("byte"))
+        {
+            return Byte.valueOf(text);
+        } else if (localType.equals("boolean"))
+        {
+            return Boolean.valueOf(text.equals("true") || text.equals("1"));
+        } else if (localType.equals("decimal"))
+        {
+            return new BigDecimal(text);
+        } else if (localType.equals("integer"))
+        {
+            return new BigInteger(text);
+        } else
+        {
+            return text;
+        }
+    }
+    
+    
+    private static double parseFloating(String text)
+    {
+        if (text.equals("INF"))
+        {
+            return Double.POSITIVE_INFINITY;
+        } else if (text.equals("-INF"))
+        {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(text);
+    }
+}
@@ -0,0 +1,234 @@
+package net.posick.tree;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The TreeXMLWriter streams a Tree as XML using StAX.  The document has the
+ * same structure as the JAXB serialized form of the Tree, nested
+ * <code>&lt;Node&gt;</code> elements for the children followed by the
+ * <code>&lt;Value&gt;</code> of each node, so it can be read back with either
+ * <code>AbstractTree.loadFromXML</code> or the TreeXMLReader.
+ * <p>
+ * The Tree is walked iteratively using the parent links, no state other than the
+ * current node is kept, so the memory used is independent of the size of the Tree.
+ * Values of the XML Schema built-in types are written with their schema type,
+ * all other values are written as strings.
+ * 
+ * @author Steve Posick
+ * 
+ * @see TreeXMLReader
+ */
+@SuppressWarnings("rawtypes")
+public class TreeXMLWriter
+{
+    static final String NODE = "Node";
+    
+    static final String VALUE = "Value";
+    
+    static final String XSI_PREFIX = "xsi";
+    
+    static final String XS_PREFIX = "xs";
+    
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    
+    
+    /**
+     * Writes the tree as an XML document to the output stream, UTF-8 encoded.
+     * 
+     * @param tree The root node of the tree
+     * @param out The output stream
+     * @throws XMLStreamException
+     */
+    public static void write(Tree tree, OutputStream out)
+    throws XMLStreamException
+    {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        try
+        {
+            writer.writeStartDocument("UTF-8", "1.0");
+            write(tree, writer);
+            writer.writeEndDocument();
+        } finally
+        {
+            writer.close();
+        }
+    }
+    
+    
+    /**
+     * Writes the tree as an XML document to the writer.
+     * 
+     * @param tree The root node of the tree
+     * @param out The writer
+     * @throws XMLStreamException
+     */
+    public static void write(Tree tree, Writer out)
+    throws XMLStreamException
+    {
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out);
+        try
+        {
+            writer.writeStartDocument();
+            write(tree, writer);
+            writer.writeEndDocument();
+        } finally
+        {
+            writer.close();
+        }
+    }
+    
+    
+    /**
+     * Writes the tree as an XML element to the stream writer.  The root node and
+     * its descendants are written, the siblings of the root node are not.
+     * 
+     * @param tree The root node of the tree
+     * @param writer The stream writer
+     * @throws XMLStreamException
+     */
+    public static void write(Tree tree, XMLStreamWriter writer)
+    throws XMLStreamException
+    {
+        writer.writeStartElement(rootName(tree.getClass()));
+        writer.writeNamespace(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+        writer.writeNamespace(XS_PREFIX, XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        
+        // The depth beneath the root node ends the walk, views such as the IndexedTree
+        // create a new node per navigation so the root node can not be compared.
+        Tree node = tree;
+        int depth = 0;
+        while (node != null)
+        {
+            Tree child = node.getFirstChild();
+            if (child != null)
+            {
+                writeStartNode(writer, child);
+                node = child;
+                depth++;
+            } else
+            {
+                // Close the node and its ancestors until a sibling is found.
+                Tree next = null;
+                while (next == null && node != null)
+                {
+                    writeValue(writer, node.getValue());
+                    writer.writeEndElement();
+                    
+                    if (depth == 0)
+                    {
+                        node = null;
+                    } else if ((next = node.getNextSibling()) != null)
+                    {
+                        writeStartNode(writer, next);
+                        node = next;
+                    } else
+                    {
+                        node = node.getParent();
+                        depth--;
+                    }
+                }
+            }
+        }
+    }
+    
+    
+    private static void writeStartNode(XMLStreamWriter writer, Tree node)
+    throws XMLStreamException
+    {
+        writer.writeStartElement(NODE);
+        writer.writeAttribute(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type", typeName(node.getClass()));
+    }
+    
+    
+    private static void writeValue(XMLStreamWriter writer, Object value)
+    throws XMLStreamException
+    {
+        if (value != null)
+        {
+            writer.writeStartElement(VALUE);
+            writer.writeAttribute(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type", XS_PREFIX + ":" + schemaType(value));
+            writer.writeCharacters(printValue(value));
+            writer.writeEndElement();
+        }
+    }
+    
+    
+    /**
+     * Returns the XML Schema built-in type of the value.
+     * 
+     * @param value The value
+     * @return The local name of the schema type
+     */
+    static String schemaType(Object value)
+    {
+        if (value instanceof Integer)
+        {
+            return "int";
+        } else if (value instanceof Long)
+        {
+            return "long";
+        } else if (value instanceof Double)
+        {
+            return "double";
+        } else if (value instanceof Float)
+        {
+            return "float";
+        } else if (value instanceof Short)
+        {
+            return "short";
+        } else if (value instanceof Byte)
+        {
+            return "byte";
+        } else if (value instanceof Boolean)
+        {
+            return "boolean";
+        } else if (value instanceof BigDecimal)
+        {
+            return "decimal";
+        } else if (value instanceof BigInteger)
+        {
+            return "integer";
+        } else
+        {
+            return "string";
+        }
+    }
+    
+    
+    private static String printValue(Object value)
+    {
+        if (value instanceof Double || value instanceof Float)
+        {
+            double number = ((Number) value).doubleValue();
+            if (Double.isInfinite(number))
+            {
+                return number > 0 ? "INF" : "-INF";
+            }
+        }
+        return value.toString();
+    }
+    
+    
+    private static String rootName(Class<?> clazz)
+    {
+        XmlRootElement element = clazz.getAnnotation(XmlRootElement.class);
+        return element != null && element.name().length() > 0 && !element.name().startsWith("#") ? element.name() : clazz.getSimpleName();
+    }
+    
+    
+    private static String typeName(Class<?> clazz)
+    {
+        XmlType type = clazz.getAnnotation(XmlType.class);
+        return type != null && type.name().length() > 0 && !type.name().startsWith("#") ? type.name() : clazz.getSimpleName();
+    }
+}
@@ -0,0 +1,126 @@
+package net.posick.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ValueCodec encodes and decodes the values of Tree nodes for the binary
+ * Tree format.  Codecs are never passed null values, the presence of a value is
+ * recorded by the format itself.
+ * 
+ * @author Steve Posick
+ * 
+ * @param <V> The value contained within the Tree node
+ * @see TreeBinaryWriter
+ * @see TreeBinaryReader
+ */
+public interface ValueCodec<V>
+{
+    /**
+     * Codec for <code>String</code> values, length prefixed UTF-8.
+     */
+    public static final ValueCodec<String> STRING = new ValueCodec<String>()
+    {
+        public void write(DataOutput out, String value)
+        throws IOException
+        {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            TreeBinaryWriter.writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+        
+        
+        public String read(DataInput in)
+        throws IOException
+        {
+            byte[] bytes = new byte[TreeBinaryReader.readVarInt(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+    
+    /**
+     * Codec for <code>Integer</code> values, zig-zag variable length encoded.
+     */
+    public static final ValueCodec<Integer> INTEGER = new ValueCodec<Integer>()
+    {
+        public void write(DataOutput out, Integer value)
+        throws IOException
+        {
+            int number = value.intValue();
+            TreeBinaryWriter.writeVarInt(out, (number << 1) ^ (number >> 31));
+        }
+        
+        
+        public Integer read(DataInput in)
+        throws IOException
+        {
+            int number = TreeBinaryReader.readVarInt(in);
+            return Integer.valueOf((number >>> 1) ^ -(number & 1));
+        }
+    };
+    
+    /**
+     * Codec for <code>Long</code> values, zig-zag variable length encoded.
+     */
+    public static final ValueCodec<Long> LONG = new ValueCodec<Long>()
+    {
+        public void write(DataOutput out, Long value)
+        throws IOException
+        {
+            long number = value.longValue();
+            TreeBinaryWriter.writeVarLong(out, (number << 1) ^ (number >> 63));
+        }
+        
+        
+        public Long read(DataInput in)
+        throws IOException
+        {
+            long number = TreeBinaryReader.readVarLong(in);
+            return Long.valueOf((number >>> 1) ^ -(number & 1));
+        }
+    };
+    
+    /**
+     * Codec for <code>Double</code> values, 8 bytes IEEE 754.
+     */
+    public static final ValueCodec<Double> DOUBLE = new ValueCodec<Double>()
+    {
+        public void write(DataOutput out, Double value)
+        throws IOException
+        {
+            out.writeDouble(value.doubleValue());
+        }
+        
+        
+        public Double read(DataInput in)
+        throws IOException
+        {
+            return Double.valueOf(in.readDouble());
+        }
+    };
+    
+    
+    /**
+     * Writes the value to the output.
+     * 
+     * @param out The output
+     * @param value The value, never null
+     * @throws IOException
+     */
+    public void write(DataOutput out, V value)
+    throws IOException;
+    
+    
+    /**
+     * Reads a value from the input.
+     * 
+     * @param in The input
+     * @return The value
+     * @throws IOException
+     */
+    public V read(DataInput in)
+    throws IOException;
+}